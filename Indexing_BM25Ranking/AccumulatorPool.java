@@ -0,0 +1,69 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Bounded pool of accumulators sized to the corpus, borrowed by a query and
+ * given back when it ends. Unlike accumulators kept per thread, the memory
+ * held stays bounded when every request runs on a thread of its own, as
+ * virtual threads do. A query finding the pool empty creates accumulators,
+ * and accumulators given back to a full pool are dropped.
+ * 
+ * @author Adib
+ */
+public abstract class AccumulatorPool<T> {
+	
+	private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<T>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final int capacity;
+	
+	/**
+	 * Initialize a pool keeping at most two idle accumulators per processor
+	 */
+	public AccumulatorPool() {
+		this(2 * Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Initialize an empty pool
+	 * 
+	 * @param capacity The most idle accumulators kept
+	 */
+	public AccumulatorPool(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Create accumulators when the pool has none idle
+	 * 
+	 * @return New accumulators
+	 */
+	protected abstract T create();
+	
+	/**
+	 * Take idle accumulators from the pool, or create them
+	 * 
+	 * @return Accumulators owned by the caller until given back
+	 */
+	public T borrow() {
+		T accumulator = idle.poll();
+		if (accumulator == null) {
+			return create();
+		}
+		idleCount.decrementAndGet();
+		return accumulator;
+	}
+	
+	/**
+	 * Give cleared accumulators back to the pool
+	 * 
+	 * @param accumulator Accumulators taken by borrow, not used after
+	 */
+	public void giveBack(T accumulator) {
+		if (idleCount.incrementAndGet() <= capacity) {
+			idle.offer(accumulator);
+		} else {
+			idleCount.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,446 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * In-memory inverted index made of primitive arrays. Every term has
+ * parallel document number and term frequency arrays, and document lengths
+ * are kept in an array indexed by dense document number, so no posting is
+ * stored as a boxed object. Terms are numbered in sorted order and kept
+ * front-coded in a {@link TermDictionary}.
+ * 
+ * @author Adib
+ */
+public class ArrayIndex implements PostingsIndex {
+	
+	/*
+	 * Tokens in sorted order, their positions being the term numbers
+	 */
+	private TermDictionary terms;
+	
+	/*
+	 * Postings of each term number
+	 */
+	private Postings[] postings;
+	
+	/*
+	 * Impact pairs of each term number
+	 */
+	private int[][] impacts;
+	
+	/*
+	 * Document id of each dense document number, in increasing order
+	 */
+	private int[] documentIds;
+	
+	/*
+	 * Number of tokens in each dense document number
+	 */
+	private int[] documentLengths;
+	
+	// Sum of all document lengths
+	private long totalLength;
+	
+	// Whether postings carry positions
+	private boolean positions;
+	
+	public ArrayIndex() {
+		terms = TermDictionary.build(new String[0]);
+		postings = new Postings[0];
+		impacts = new int[0][];
+		documentIds = new int[0];
+		documentLengths = new int[0];
+	}
+	
+	/**
+	 * Load an inverted index from the given text index file as written by
+	 * printIndex method of the Printer class
+	 * 
+	 * @param fileName The filename to read the data from
+	 */
+	public void loadIndex(String fileName) {
+		List<String> terms = new ArrayList<String>();
+		List<int[]> termDocuments = new ArrayList<int[]>();
+		List<int[]> termFrequencies = new ArrayList<int[]>();
+		
+		try (
+			FileReader fileReader = new FileReader(fileName);
+			BufferedReader reader = new BufferedReader(fileReader);
+		) {
+			
+			String currentLine;
+			int[] documents = new int[16];
+			int[] frequencies = new int[16];
+			
+			while ((currentLine = reader.readLine()) != null) {
+				
+				int end = currentLine.indexOf(' ');
+				if (end <= 0) {
+					continue;
+				}
+				
+				// Parse "(document,frequency)" pairs by hand
+				int size = 0;
+				int length = currentLine.length();
+				int i = end;
+				
+				while ((i = currentLine.indexOf('(', i)) >= 0) {
+					int document = 0;
+					for (i++; i < length && currentLine.charAt(i) != ','; i++) {
+						document = document * 10 + (currentLine.charAt(i) - '0');
+					}
+					
+					int frequency = 0;
+					for (i++; i < length && currentLine.charAt(i) != ')'; i++) {
+						frequency = frequency * 10 + (currentLine.charAt(i) - '0');
+					}
+					
+					if (size == documents.length) {
+						documents = Arrays.copyOf(documents, size * 2);
+						frequencies = Arrays.copyOf(frequencies, size * 2);
+					}
+					documents[size] = document;
+					frequencies[size] = frequency;
+					size++;
+				}
+				
+				terms.add(currentLine.substring(0, end));
+				termDocuments.add(Arrays.copyOf(documents, size));
+				termFrequencies.add(Arrays.copyOf(frequencies, size));
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to read from input file");
+			exception.printStackTrace();
+			
+		}
+		
+		build(terms, termDocuments, termFrequencies, null);
+	}
+	
+	/**
+	 * Load an inverted index from the in-memory maps built by the Index class
+	 * 
+	 * @param invertedIndex Map from Token to a map from document id to term frequency
+	 * @param tokenCount Map from document id to number of token's in that document
+	 */
+	public void loadIndex(Map<String, Map<Integer, Integer>> invertedIndex,
+			Map<Integer, Integer> tokenCount) {
+		
+		List<String> terms = new ArrayList<String>(invertedIndex.size());
+		List<int[]> termDocuments = new ArrayList<int[]>(invertedIndex.size());
+		List<int[]> termFrequencies = new ArrayList<int[]>(invertedIndex.size());
+		
+		for (Map.Entry<String, Map<Integer, Integer>> entry : invertedIndex.entrySet()) {
+			Map<Integer, Integer> documentMap = entry.getValue();
+			int[] documents = new int[documentMap.size()];
+			int[] frequencies = new int[documentMap.size()];
+			int size = 0;
+			
+			for (Map.Entry<Integer, Integer> documentEntry : documentMap.entrySet()) {
+				documents[size] = documentEntry.getKey();
+				frequencies[size] = documentEntry.getValue();
+				size++;
+			}
+			
+			terms.add(entry.getKey());
+			termDocuments.add(documents);
+			termFrequencies.add(frequencies);
+		}
+		
+		build(terms, termDocuments, termFrequencies, tokenCount);
+	}
+	
+	/**
+	 * Assign dense document numbers and lay out the postings arrays
+	 * 
+	 * @param terms The distinct terms of the index, in any order
+	 * @param termDocuments Document ids of each term, in any order, replaced
+	 *        in place by document numbers
+	 * @param termFrequencies Term frequencies parallel to the document ids
+	 * @param tokenCount Document lengths, or null to sum up term frequencies
+	 */
+	void build(List<String> terms, List<int[]> termDocuments,
+			List<int[]> termFrequencies, Map<Integer, Integer> tokenCount) {
+		
+		// Collect distinct document ids
+		int numberOfPostings = 0;
+		for (int[] documents : termDocuments) {
+			numberOfPostings += documents.length;
+		}
+		
+		int[] allDocuments = new int[numberOfPostings];
+		int position = 0;
+		for (int[] documents : termDocuments) {
+			System.arraycopy(documents, 0, allDocuments, position, documents.length);
+			position += documents.length;
+		}
+		Arrays.sort(allDocuments);
+		
+		int numberOfDocuments = 0;
+		for (int i = 0; i < numberOfPostings; i++) {
+			if (i == 0 || allDocuments[i] != allDocuments[i - 1]) {
+				allDocuments[numberOfDocuments++] = allDocuments[i];
+			}
+		}
+		documentIds = Arrays.copyOf(allDocuments, numberOfDocuments);
+		documentLengths = new int[numberOfDocuments];
+		
+		// Number terms in sorted order
+		final String[] sortedTerms = terms.toArray(new String[terms.size()]);
+		Integer[] order = new Integer[sortedTerms.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return sortedTerms[first].compareTo(sortedTerms[second]);
+			}
+		});
+		
+		String[] unsortedTerms = sortedTerms.clone();
+		for (int termNumber = 0; termNumber < order.length; termNumber++) {
+			sortedTerms[termNumber] = unsortedTerms[order[termNumber]];
+		}
+		this.terms = TermDictionary.build(sortedTerms);
+		
+		// Map document ids to dense numbers, which keeps their order
+		postings = new Postings[sortedTerms.length];
+		
+		for (int termNumber = 0; termNumber < postings.length; termNumber++) {
+			int[] documents = termDocuments.get(order[termNumber]);
+			int[] frequencies = termFrequencies.get(order[termNumber]);
+			
+			for (int i = 0; i < documents.length; i++) {
+				documents[i] = Arrays.binarySearch(documentIds, documents[i]);
+				
+				if (tokenCount == null) {
+					documentLengths[documents[i]] += frequencies[i];
+				}
+			}
+			
+			sortPostings(documents, frequencies, documents.length);
+			postings[termNumber] = new Postings(documents, frequencies, documents.length);
+		}
+		
+		if (tokenCount != null) {
+			for (int document = 0; document < numberOfDocuments; document++) {
+				documentLengths[document] = tokenCount.get(documentIds[document]);
+			}
+		}
+		
+		totalLength = 0;
+		for (int length : documentLengths) {
+			totalLength += length;
+		}
+		
+		// Skip data and impacts need the lengths of all documents
+		impacts = new int[postings.length][];
+		for (int termNumber = 0; termNumber < postings.length; termNumber++) {
+			Postings termPostings = postings[termNumber];
+			postings[termNumber] = new Postings(termPostings.getDocuments(),
+					termPostings.getFrequencies(), termPostings.size(), documentLengths);
+			impacts[termNumber] = Postings.computeImpacts(termPostings.getDocuments(),
+					termPostings.getFrequencies(), termPostings.size(), documentLengths);
+		}
+	}
+	
+	/**
+	 * Add the positions of the terms in each document to the postings by
+	 * reading the corpus the index was built from again. Positions number the
+	 * tokens of a document as they are indexed, from 0.
+	 * 
+	 * @param fileName The corpus file the index was built from
+	 */
+	public void loadPositions(String fileName) {
+		
+		// Positions of each term, start of the positions of each posting in
+		// them, and number of positions of each posting found so far
+		int[][] termPositions = new int[postings.length][];
+		int[][] positionOffsets = new int[postings.length][];
+		int[][] positionCounts = new int[postings.length][];
+		Map<String, Integer> termNumbers = new HashMap<String, Integer>(2 * postings.length);
+		
+		for (int termNumber = 0; termNumber < postings.length; termNumber++) {
+			int[] frequencies = postings[termNumber].getFrequencies();
+			int size = postings[termNumber].size();
+			int[] offsets = new int[size];
+			int total = 0;
+			
+			for (int i = 0; i < size; i++) {
+				offsets[i] = total;
+				total += frequencies[i];
+			}
+			
+			termPositions[termNumber] = new int[total];
+			positionOffsets[termNumber] = offsets;
+			positionCounts[termNumber] = new int[size];
+			termNumbers.put(terms.getTerm(termNumber), termNumber);
+		}
+		
+		// Next position in each document number
+		int[] documentPositions = new int[documentIds.length];
+		
+		try (
+			FileReader fileReader = new FileReader(fileName);
+			BufferedReader reader = new BufferedReader(fileReader);
+		) {
+			
+			String currentLine;
+			int document = Arrays.binarySearch(documentIds, 1);
+			List<String> tokens = new ArrayList<String>();
+			
+			while ((currentLine = reader.readLine()) != null) {
+				
+				if (Index.isDocumentStart(currentLine)) {
+					document = Arrays.binarySearch(documentIds, Index.parseDocumentId(currentLine));
+					continue;
+				}
+				
+				tokens.clear();
+				Index.tokenize(currentLine, tokens);
+				
+				for (String token : tokens) {
+					Integer termNumber = termNumbers.get(token);
+					Postings termPostings = termNumber == null ? null : postings[termNumber];
+					int i = termPostings == null || document < 0 ? -1 : Arrays.binarySearch(
+							termPostings.getDocuments(), 0, termPostings.size(), document);
+					
+					if (i < 0 || positionCounts[termNumber][i] == termPostings.getFrequencies()[i]) {
+						System.out.println("Corpus does not match the index");
+						return;
+					}
+					
+					termPositions[termNumber][positionOffsets[termNumber][i]
+							+ positionCounts[termNumber][i]++] = documentPositions[document]++;
+				}
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to read from input file");
+			exception.printStackTrace();
+			return;
+			
+		}
+		
+		for (int termNumber = 0; termNumber < postings.length; termNumber++) {
+			postings[termNumber] = postings[termNumber].withPositions(termPositions[termNumber]);
+		}
+		positions = true;
+	}
+	
+	/**
+	 * Sort parallel document and frequency arrays by document
+	 * 
+	 * @param documents Non negative, distinct documents
+	 * @param frequencies Frequency of each document
+	 * @param size Number of entries to sort
+	 */
+	public static void sortPostings(int[] documents, int[] frequencies, int size) {
+		long[] packed = new long[size];
+		
+		for (int i = 0; i < size; i++) {
+			packed[i] = ((long) documents[i] << 32) | (frequencies[i] & 0xFFFFFFFFL);
+		}
+		
+		Arrays.sort(packed);
+		
+		for (int i = 0; i < size; i++) {
+			documents[i] = (int) (packed[i] >>> 32);
+			frequencies[i] = (int) packed[i];
+		}
+	}
+	
+	@Override
+	public int getNumberOfDocuments() {
+		return documentIds.length;
+	}
+	
+	@Override
+	public int getMaxDocument() {
+		return documentIds.length;
+	}
+	
+	@Override
+	public long getTotalLength() {
+		return totalLength;
+	}
+	
+	@Override
+	public int getDocumentId(int document) {
+		return documentIds[document];
+	}
+	
+	@Override
+	public int getDocumentLength(int document) {
+		return documentLengths[document];
+	}
+	
+	@Override
+	public int getNumberOfTerms() {
+		return postings.length;
+	}
+	
+	@Override
+	public String getTerm(int termNumber) {
+		return terms.getTerm(termNumber);
+	}
+	
+	@Override
+	public Iterator<String> getTerms(int termNumber) {
+		return terms.iterator(termNumber);
+	}
+	
+	@Override
+	public int findTerm(String term) {
+		return terms.findTerm(term);
+	}
+	
+	@Override
+	public int findFirstTerm(String term) {
+		return terms.findFirstTerm(term);
+	}
+	
+	@Override
+	public int getDocumentFrequency(int termNumber) {
+		return postings[termNumber].size();
+	}
+	
+	@Override
+	public Postings getPostings(int termNumber) {
+		return postings[termNumber];
+	}
+	
+	@Override
+	public PostingsCursor getCursor(int termNumber) {
+		return postings[termNumber].cursor();
+	}
+	
+	@Override
+	public int[] getImpacts(int termNumber) {
+		return impacts[termNumber];
+	}
+	
+	@Override
+	public boolean hasPositions() {
+		return positions;
+	}
+	
+	@Override
+	public PostingsIndex snapshot() {
+		return this;
+	}
+	
+}
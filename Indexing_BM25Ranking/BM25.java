@@ -1,8 +1,18 @@
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -14,37 +24,146 @@ public class BM25 {
 	
 	private static final String RESULT_FILE = "results.eval"; 
 	
+	// Number of queries in flight per thread while keeping output ordered
+	private static final int QUERIES_PER_THREAD = 4;
+	
+	// Seconds between snapshots of the metrics file
+	private static final int METRICS_PERIOD_SECONDS = 5;
+	
 	public static void main(String[] args) {
-		if (args.length != 3) {
-			System.out.println("Format: <IndexFile> <QueriesFile> <DesiredNumberOfResults>");
+		if (args.length < 3 || args.length > 8) {
+			System.out.println("Format: <IndexFile> <QueriesFile> <DesiredNumberOfResults> [Threads] [CacheMB]"
+					+ " [ImpactBudgetMicros] [MetricsFile] [EchoResults]");
 			return;
 		}
 		
 		String indexFile = args[0];
 		String queryFile = args[1];
 		int top = Integer.parseInt(args[2]);
+		int threads = args.length > 3 ? Integer.parseInt(args[3])
+				: Runtime.getRuntime().availableProcessors();
+		long cacheBytes = args.length > 4 ? Long.parseLong(args[4]) * 1024 * 1024 : 0;
+		long impactBudget = args.length > 5 ? Long.parseLong(args[5]) * 1000 : -1;
+		String metricsFile = args.length > 6 && !args[6].isEmpty() ? args[6] : null;
+		boolean echo = args.length > 7 ? Boolean.parseBoolean(args[7]) : true;
 		
 		// Load index and get the inverted index
-		Index index = new Index();
-		index.loadIndex(indexFile);
-		Map<String, Map<Integer, Integer>> invertedIndex = index.getInvertedIndex();
-		Map<Integer, Integer> tokenCount = index.getTokenCount();
+		PostingsIndex index = loadIndex(indexFile);
 		
 		// Run BM25 on each query
-		BM25Algorithm algorithm = new BM25Algorithm(invertedIndex, tokenCount, 1.2, 100, 0.75);
+		BM25Algorithm algorithm = new BM25Algorithm(index, 1.2, 100, 0.75);
+		
+		// Rank score-at-a-time on an impact-ordered layout when a budget is given
+		if (impactBudget >= 0) {
+			algorithm.setImpactOrdered(true, impactBudget);
+		}
+		
+		// Answer repeated queries from a result cache when a size is given
+		QueryCache cache = null;
+		if (cacheBytes > 0) {
+			cache = new QueryCache(algorithm, cacheBytes, QueryCache.Policy.LRU);
+		}
+		
+		// Record stage latencies to a file, rewritten periodically and at the end
+		QueryMetrics metrics = null;
+		if (metricsFile != null) {
+			metrics = new QueryMetrics();
+			algorithm.setMetrics(metrics);
+			metrics.startReporting(metricsFile, METRICS_PERIOD_SECONDS);
+		}
+		
+		runQueries(algorithm, cache, queryFile, top, threads, echo);
+		
+		if (metrics != null) {
+			metrics.stopReporting();
+			metrics.writeSnapshot(metricsFile);
+		}
+		
+		if (cache != null) {
+			System.out.println("Query cache: " + cache.getHits() + " hits, "
+					+ cache.getMisses() + " misses, " + cache.getEvictions() + " evictions");
+		}
+	}
+	
+	/**
+	 * Load an index of any format: a directory of index segments, a binary
+	 * index or a text index
+	 * 
+	 * @param indexFile The index file or directory
+	 * @return The loaded index
+	 */
+	static PostingsIndex loadIndex(String indexFile) {
+		if (new File(indexFile).isDirectory()) {
+			
+			SegmentedIndex segmentedIndex = new SegmentedIndex();
+			segmentedIndex.loadIndex(indexFile);
+			return segmentedIndex;
+			
+		} else if (BinaryIndex.isBinaryIndex(indexFile)) {
+			
+			BinaryIndex binaryIndex = new BinaryIndex();
+			binaryIndex.loadIndex(indexFile);
+			return binaryIndex;
+			
+		} else {
+			
+			ArrayIndex arrayIndex = new ArrayIndex();
+			arrayIndex.loadIndex(indexFile);
+			return arrayIndex;
+			
+		}
+	}
+	
+	/**
+	 * Rank documents for every query of the queries file on a pool of threads
+	 * sharing the read-only index, and print the results in query id order
+	 * through a single writer
+	 * 
+	 * @param algorithm The BM25 algorithm over the loaded index
+	 * @param cache The result cache in front of the algorithm, or null
+	 * @param queryFile The file containing one query per line
+	 * @param top The number of top documents to print per query
+	 * @param threads The number of threads scoring queries
+	 * @param echo Whether to print the results to standard output as well
+	 */
+	private static void runQueries(final BM25Algorithm algorithm, final QueryCache cache,
+			String queryFile, final int top, int threads, boolean echo) {
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Queue<Future<Map<Integer, Double>>> pending =
+				new ArrayDeque<Future<Map<Integer, Double>>>();
+		
 		try (
 			FileReader fileReader = new FileReader(queryFile);
 			BufferedReader reader = new BufferedReader(fileReader);
+			PrintWriter outputStream = new PrintWriter(
+					new BufferedWriter(new FileWriter(RESULT_FILE)));
 		) {
 			
-			String query;
+			String line;
 			int queryId = 1;
-			File file = new File(RESULT_FILE);
-			file.delete();
 			
-			while ((query = reader.readLine()) != null) {
-				Map<Integer, Double> score = algorithm.runBM25Algorithm(query);
-				Printer.printSortedScore(RESULT_FILE, score, top, queryId);
+			while ((line = reader.readLine()) != null) {
+				final String query = line;
+				pending.add(executor.submit(new Callable<Map<Integer, Double>>() {
+					@Override
+					public Map<Integer, Double> call() {
+						return cache != null ? cache.runBM25Algorithm(query, top)
+								: algorithm.runBM25Algorithm(query, top);
+					}
+				}));
+				
+				// Print the oldest query once enough are in flight
+				if (pending.size() == threads * QUERIES_PER_THREAD) {
+					printResults(outputStream, pending.remove().get(), top, queryId, echo,
+							algorithm.getMetrics());
+					queryId++;
+				}
+			}
+			
+			while (!pending.isEmpty()) {
+				printResults(outputStream, pending.remove().get(), top, queryId, echo,
+						algorithm.getMetrics());
 				queryId++;
 			}
 			
@@ -53,6 +172,28 @@ public class BM25 {
 			System.out.println("Unable to read from input file");
 			exception.printStackTrace();
 			
+		} catch (InterruptedException | ExecutionException exception) {
+			
+			System.out.println("Unable to rank query");
+			exception.printStackTrace();
+			
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Print the results of a query, recording the time taken as its output
+	 * stage when metrics are recorded
+	 */
+	private static void printResults(PrintWriter outputStream, Map<Integer, Double> documentRank,
+			int top, int queryId, boolean echo, QueryMetrics metrics) {
+		long start = metrics != null ? System.nanoTime() : 0;
+		
+		Printer.printSortedScore(outputStream, documentRank, top, queryId, echo);
+		
+		if (metrics != null) {
+			metrics.record(QueryMetrics.Stage.OUTPUT, System.nanoTime() - start);
 		}
 	}
-}
+}
\ No newline at end of file
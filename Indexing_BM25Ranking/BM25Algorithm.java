@@ -1,5 +1,10 @@
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
 
 /**
  * Class used for calculating the BM25 for a given query on 
@@ -10,25 +15,56 @@ import java.util.Map;
 public class BM25Algorithm {
 
 	/*
-	 * Map from Token to a map from document id to term frequency
+	 * Inverted index with primitive postings and document lengths, which may
+	 * change between queries
 	 */
-	private final Map<String, Map<Integer, Integer>> invertedIndex;
-	
-	/*
-	 * Map from document id to number of token's in that document
-	 */
-	private final Map<Integer, Integer> tokenCount;
+	private final PostingsIndex index;
 	
 	//BM25 Constants
-	private final double k1;
-	private final double k2;
-	private final double b;
+	private double k1;
+	private double k2;
+	private double b;
+	
+	// Length normalization and IDF tables of the current index and constants
+	private ScoringTables tables;
+	
+	// Number of tables built so far
+	private long versions;
+	
+	// Version taken when the ranking mode last changed
+	private long modeVersion;
+	
+	// Time budget of score-at-a-time ranking in nanoseconds, 0 for none,
+	// or -1 to rank document-at-a-time
+	private long impactBudget = -1;
+	
+	// Metrics of the queries ranked, or null to record none
+	private volatile QueryMetrics metrics;
+	
+	// Kernel adding the scores of postings to dense score accumulators
+	private final ScoreKernel kernel = ScoreKernel.getInstance();
+	
+	// Score accumulators borrowed by each query, reused from query to query
+	private final AccumulatorPool<ScoreAccumulator> accumulators = new AccumulatorPool<ScoreAccumulator>() {
+		@Override
+		protected ScoreAccumulator create() {
+			return new ScoreAccumulator();
+		}
+	};
+	
+	// Whether the last query of each thread was cut short by its impact budget
+	private final ThreadLocal<Boolean> truncated = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return Boolean.FALSE;
+		}
+	};
 	
-	// Average Document length
-	private final double avdl;
+	// Whether top documents are ranked term-at-a-time instead of document-at-a-time
+	private boolean termAtATime;
 	
-	// Corpus Size
-	private final int N;
+	// Relative margin added to score upper bounds against rounding errors
+	private static final double UPPER_BOUND_SLACK = 1e-9;
 	
 	/**
 	 * Initialize BM25 Algorithm 
@@ -38,35 +74,648 @@ public class BM25Algorithm {
 	 */
 	public BM25Algorithm(Map<String, Map<Integer, Integer>> invertedIndex,
 			Map<Integer, Integer> tokenCount, double k1, double k2, double b) {
-		this.invertedIndex = invertedIndex;
-		this.tokenCount = tokenCount;
+		this(toArrayIndex(invertedIndex, tokenCount), k1, k2, b);
+	}
+	
+	/**
+	 * Initialize BM25 Algorithm 
+	 * 
+	 * @param index The inverted index addressed by dense document numbers
+	 */
+	public BM25Algorithm(PostingsIndex index, double k1, double k2, double b) {
+		this.index = index;
 		this.k1 = k1;
 		this.k2 = k2;
 		this.b = b;
 		
-		N = tokenCount.size();
-		int sum = 0;
+		tables = new ScoringTables(index.snapshot(), k1, k2, b, versions++);
+	}
+	
+	/**
+	 * Change the BM25 constants. Tables depending on them are rebuilt before
+	 * the next query.
+	 * 
+	 * @param k1 Term frequency saturation
+	 * @param k2 Query term frequency saturation
+	 * @param b Document length normalization
+	 */
+	public synchronized void setParameters(double k1, double k2, double b) {
+		this.k1 = k1;
+		this.k2 = k2;
+		this.b = b;
+	}
+	
+	/**
+	 * Choose how the top documents of a query are ranked: document-at-a-time
+	 * over the postings of the index, which gives the exact top documents, or
+	 * score-at-a-time over an impact-ordered layout of the index, built when
+	 * first needed, which may stop early at a time budget
+	 * 
+	 * @param impactOrdered Whether to rank score-at-a-time
+	 * @param budgetNanos Time budget of a query in nanoseconds, 0 for none
+	 */
+	public synchronized void setImpactOrdered(boolean impactOrdered, long budgetNanos) {
+		long budget = impactOrdered ? budgetNanos : -1;
+		if (budget != impactBudget) {
+			impactBudget = budget;
+			modeVersion = versions++;
+		}
+	}
+	
+	private synchronized long getImpactBudget() {
+		return impactBudget;
+	}
+	
+	/**
+	 * Return whether the last query ranked on the calling thread stopped at its
+	 * impact budget, so that its results depend on timing and may be missing
+	 * documents of its exact top
+	 * 
+	 * @return true iff the last query of the thread was cut short
+	 */
+	public boolean isTruncated() {
+		return truncated.get();
+	}
+	
+	/**
+	 * Choose to rank the top documents term-at-a-time, scoring every matching
+	 * document into dense accumulators, instead of document-at-a-time.
+	 * Score-at-a-time ranking, if chosen, takes precedence.
+	 * 
+	 * @param termAtATime Whether to rank term-at-a-time
+	 */
+	public synchronized void setTermAtATime(boolean termAtATime) {
+		if (termAtATime != this.termAtATime) {
+			this.termAtATime = termAtATime;
+			modeVersion = versions++;
+		}
+	}
+	
+	private synchronized boolean isTermAtATime() {
+		return termAtATime;
+	}
+	
+	/**
+	 * Record the latency of each stage of the following queries and the
+	 * postings they score
+	 * 
+	 * @param metrics The metrics to record to, or null to record none
+	 */
+	public void setMetrics(QueryMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	public QueryMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Read the clock only when metrics are recorded
+	 */
+	private static long now(QueryMetrics metrics) {
+		return metrics != null ? System.nanoTime() : 0;
+	}
+	
+	/**
+	 * Record the stages of a ranked query from the clock readings between them
+	 */
+	private static void recordQuery(QueryMetrics metrics, long start, long parsed, long scored,
+			long postings, long documents) {
+		long ranked = System.nanoTime();
+		
+		metrics.record(QueryMetrics.Stage.PARSE, parsed - start);
+		metrics.record(QueryMetrics.Stage.SCORE, scored - parsed);
+		metrics.record(QueryMetrics.Stage.RANK, ranked - scored);
+		metrics.addQuery(postings, documents);
+	}
+	
+	/**
+	 * Return the scoring tables of the current snapshot of the index and the
+	 * current constants, rebuilding them if either changed
+	 */
+	private synchronized ScoringTables getTables() {
+		PostingsIndex snapshot = index.snapshot();
 		
-		for (int count : tokenCount.values()) {
-			sum += count; 
+		if (tables.index != snapshot || tables.k1 != k1 || tables.k2 != k2 || tables.b != b) {
+			tables = new ScoringTables(snapshot, k1, k2, b, versions++);
 		}
 		
-		avdl = sum / (double) N;
+		return tables;
 	}
 	
 	/**
-	 * Run an instance of BM25 Algorithm for the query on the given corpus
+	 * Return a stamp of the index snapshot, constants and ranking mode queries
+	 * are ranked with. Results of a query only change when the stamp changes,
+	 * except for queries cut short by the impact budget.
+	 * 
+	 * @return The later of the version of the scoring tables and of the mode
+	 */
+	public synchronized long getVersion() {
+		return Math.max(getTables().version, modeVersion);
+	}
+	
+	/**
+	 * Convert the maps built by the Index class to an array index
+	 */
+	private static ArrayIndex toArrayIndex(Map<String, Map<Integer, Integer>> invertedIndex,
+			Map<Integer, Integer> tokenCount) {
+		ArrayIndex index = new ArrayIndex();
+		index.loadIndex(invertedIndex, tokenCount);
+		return index;
+	}
+	
+	/**
+	 * Run an instance of BM25 Algorithm for the query on the given corpus.
+	 * Corpus size and average document length are those of the index when
+	 * the query starts. Length normalization of documents and IDF of terms
+	 * are looked up in tables, so a posting costs a few arithmetic operations,
+	 * done several postings at a time by the SIMD kernel when available.
 	 * 
 	 * @param query The query on which to rank documents
 	 * @return Map from document id to its BM25 score
 	 */
 	public Map<Integer, Double> runBM25Algorithm(String query) {
 		
-		Map<Integer, Double> documentRank = new HashMap<Integer, Double>();
+		QueryMetrics metrics = this.metrics;
+		long start = now(metrics);
+		
+		Map<String, Integer> queryTermCount = countQueryTerms(query);
+		long parsed = now(metrics);
+		
+		// Documents added or deleted meanwhile do not affect this query
+		ScoringTables tables = getTables();
+		PostingsIndex index = tables.index;
+		ScoreAccumulator accumulator = accumulators.borrow();
+		
+		try {
+			long postingsScored = accumulate(tables, queryTermCount, accumulator);
+			
+			long scored = now(metrics);
+			Map<Integer, Double> documentRank = new HashMap<Integer, Double>(
+					Math.max(16, (int) (accumulator.size() / 0.75f) + 1));
+			
+			for (int i = 0; i < accumulator.size(); i++) {
+				int document = accumulator.getDocument(i);
+				documentRank.put(index.getDocumentId(document), accumulator.getScore(document));
+			}
+			
+			if (metrics != null) {
+				recordQuery(metrics, start, parsed, scored, postingsScored, documentRank.size());
+			}
+			
+			return documentRank;
+		} finally {
+			accumulator.clear();
+			accumulators.giveBack(accumulator);
+		}
+	}
+	
+	/**
+	 * Run BM25 term-at-a-time and return only the top documents. The postings
+	 * of each query term are scored into dense accumulators borrowed from a
+	 * pool, and only the documents touched by the query are then selected
+	 * from and reset, so apart from the result a query allocates little more
+	 * than its terms. The result is the same as taking the top of the
+	 * exhaustive ranking, with equal scores ranked by increasing document id.
+	 * 
+	 * @param queryTermCount Map from query term to its frequency in the query
+	 * @param top The number of top documents to return
+	 * @param metrics The metrics to record to, or null
+	 * @param start Clock reading at the start of the query when recording metrics
+	 * @return Map from document id to its BM25 score, in decreasing order of score
+	 */
+	private Map<Integer, Double> runTermAtATime(Map<String, Integer> queryTermCount, int top,
+			QueryMetrics metrics, long start) {
+		
+		long parsed = now(metrics);
+		
+		ScoringTables tables = getTables();
+		PostingsIndex index = tables.index;
+		ScoreAccumulator accumulator = accumulators.borrow();
+		
+		try {
+			long postingsScored = accumulate(tables, queryTermCount, accumulator);
+			long scored = now(metrics);
+			
+			TopK topDocuments = new TopK(Math.min(top, accumulator.size()));
+			accumulator.selectTop(topDocuments);
+			
+			int[] documents = new int[topDocuments.size()];
+			double[] scores = new double[documents.length];
+			int count = topDocuments.drain(documents, scores);
+			
+			Map<Integer, Double> documentRank = new LinkedHashMap<Integer, Double>();
+			for (int i = 0; i < count; i++) {
+				documentRank.put(index.getDocumentId(documents[i]), scores[i]);
+			}
+			
+			if (metrics != null) {
+				recordQuery(metrics, start, parsed, scored, postingsScored, accumulator.size());
+			}
+			
+			return documentRank;
+		} finally {
+			accumulator.clear();
+			accumulators.giveBack(accumulator);
+		}
+	}
+	
+	/**
+	 * Add the scores of every posting of the query terms and phrases to the
+	 * accumulators, in query term order
+	 * 
+	 * @param tables The scoring tables of the index queried
+	 * @param queryTermCount Map from query term to its frequency in the query
+	 * @param accumulator The accumulators, cleared
+	 * @return The number of postings scored
+	 */
+	private long accumulate(ScoringTables tables, Map<String, Integer> queryTermCount,
+			ScoreAccumulator accumulator) {
+		
+		PostingsIndex index = tables.index;
+		double[] documentK = tables.documentK;
+		double k1Plus1 = tables.k1 + 1;
+		long postingsScored = 0;
+		
+		accumulator.ensureCapacity(index.getMaxDocument());
+		
+		// For each unique query term calculate BM25
+		for (Map.Entry<Integer, Integer> entry
+				: findQueryTerms(index, queryTermCount, index.hasPositions()).entrySet()) {
+			
+			int termNumber = entry.getKey();
+			Postings postings = index.getPostings(termNumber);
+			int n = postings.size();
+			
+			// Inverse document frequency times query weight
+			double weight = tables.idf[termNumber] * tables.queryWeight(entry.getValue());
+			postingsScored += n;
+			
+			accumulator.addScores(kernel, documentK, postings.getDocuments(),
+					postings.getFrequencies(), n, weight, k1Plus1);
+		}
+		
+		// Phrases are scored as terms occurring once per match
+		for (Map.Entry<Phrase, Integer> entry : findPhrases(index, queryTermCount).entrySet()) {
+			
+			Postings postings = entry.getKey().match(index);
+			int n = postings.size();
+			
+			double weight = tables.inverseDocumentFrequency(n) * tables.queryWeight(entry.getValue());
+			postingsScored += n;
+			
+			accumulator.addScores(kernel, documentK, postings.getDocuments(),
+					postings.getFrequencies(), n, weight, k1Plus1);
+		}
+		
+		return postingsScored;
+	}
+	
+	/**
+	 * Run BM25 document-at-a-time and return only the top documents.
+	 * Uses WAND: each query term has an upper bound on the score it can add,
+	 * computed from the impacts of the index, and documents whose summed
+	 * bounds cannot beat the current top documents are skipped unscored.
+	 * Bounds of the blocks of postings around the candidate document are
+	 * checked next, so whole blocks are skipped without being decoded.
+	 * The result is the same as taking the top of the exhaustive ranking, with
+	 * equal scores ranked by increasing document id.
+	 * Ranks score-at-a-time instead if chosen by setImpactOrdered, or
+	 * term-at-a-time if chosen by setTermAtATime.
+	 * 
+	 * @param query The query on which to rank documents
+	 * @param top The number of top documents to return
+	 * @return Map from document id to its BM25 score, in decreasing order of score
+	 */
+	public Map<Integer, Double> runBM25Algorithm(String query, int top) {
+		
+		QueryMetrics metrics = this.metrics;
+		long start = now(metrics);
+		
+		Map<String, Integer> queryTermCount = countQueryTerms(query);
+		Map<Integer, Double> documentRank = new LinkedHashMap<Integer, Double>();
+		truncated.set(Boolean.FALSE);
+		
+		if (top <= 0) {
+			return documentRank;
+		}
+		
+		long budget = getImpactBudget();
+		if (budget >= 0) {
+			Map<Integer, Double> impactRank = runImpactOrdered(queryTermCount, top, budget, metrics, start);
+			
+			// Ranked document-at-a-time when impacts cannot select the top documents
+			if (impactRank != null) {
+				return impactRank;
+			}
+		}
+		
+		if (isTermAtATime()) {
+			return runTermAtATime(queryTermCount, top, metrics, start);
+		}
+		
+		ScoringTables tables = getTables();
+		PostingsIndex index = tables.index;
+		double[] documentK = tables.documentK;
+		double k1Plus1 = tables.k1 + 1;
+		
+		List<TermCursor> cursorList = new ArrayList<TermCursor>();
+		
+		// Open a cursor for each unique query term, in the exhaustive scoring order
+		for (Map.Entry<Integer, Integer> entry
+				: findQueryTerms(index, queryTermCount, index.hasPositions()).entrySet()) {
+			
+			int termNumber = entry.getKey();
+			double weight = tables.idf[termNumber] * tables.queryWeight(entry.getValue());
+			
+			// Terms present in more than half of the corpus only lower the score
+			double upperBound = 0;
+			if (weight > 0) {
+				int[] impacts = index.getImpacts(termNumber);
+				for (int i = 0; i < impacts.length; i += 2) {
+					upperBound = Math.max(upperBound,
+							weight * tables.documentWeight(impacts[i], impacts[i + 1]));
+				}
+				upperBound *= 1 + UPPER_BOUND_SLACK;
+			}
+			
+			cursorList.add(new TermCursor(index.getCursor(termNumber), weight, upperBound));
+		}
+		
+		long parsed = now(metrics);
+		long postingsScored = 0;
+		long documentsScored = 0;
+		
+		// Phrases are matched up front, which bounds their scores exactly
+		for (Map.Entry<Phrase, Integer> entry : findPhrases(index, queryTermCount).entrySet()) {
+			
+			Postings postings = entry.getKey().match(index);
+			int[] documents = postings.getDocuments();
+			int[] frequencies = postings.getFrequencies();
+			
+			double weight = tables.inverseDocumentFrequency(postings.size())
+					* tables.queryWeight(entry.getValue());
+			
+			double upperBound = 0;
+			if (weight > 0) {
+				for (int i = 0; i < postings.size(); i++) {
+					upperBound = Math.max(upperBound, weight * tables.documentWeight(frequencies[i],
+							index.getDocumentLength(documents[i])));
+				}
+				upperBound *= 1 + UPPER_BOUND_SLACK;
+			}
+			
+			cursorList.add(new TermCursor(postings.cursor(), weight, upperBound));
+		}
+		
+		TermCursor[] terms = cursorList.toArray(new TermCursor[cursorList.size()]);
+		TermCursor[] cursors = terms.clone();
+		TopK topDocuments = new TopK(top);
+		
+		while (true) {
+			
+			// Keep cursors ordered by their current document
+			for (int i = 1; i < cursors.length; i++) {
+				TermCursor cursor = cursors[i];
+				int j = i - 1;
+				while (j >= 0 && cursors[j].document() > cursor.document()) {
+					cursors[j + 1] = cursors[j];
+					j--;
+				}
+				cursors[j + 1] = cursor;
+			}
+			
+			// Find the first document whose summed upper bounds beat the threshold
+			double threshold = topDocuments.getThreshold();
+			double boundSum = 0;
+			int pivot = -1;
+			
+			for (int i = 0; i < cursors.length; i++) {
+				if (cursors[i].document() == PostingsCursor.NO_MORE_DOCUMENTS) {
+					break;
+				}
+				
+				boundSum += cursors[i].upperBound;
+				if (boundSum > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			
+			if (pivot < 0) {
+				break;
+			}
+			
+			int pivotDocument = cursors[pivot].document();
+			
+			// Every cursor on the pivot document may add to its score
+			while (pivot + 1 < cursors.length && cursors[pivot + 1].document() == pivotDocument) {
+				pivot++;
+			}
+			
+			// Sum the bounds of the blocks holding the pivot document, and find
+			// the first document after the pivot that is outside one of them
+			double blockBoundSum = 0;
+			int blockEnd = PostingsCursor.NO_MORE_DOCUMENTS;
+			
+			for (int i = 0; i <= pivot; i++) {
+				if (cursors[i].shallowAdvance(pivotDocument)) {
+					blockBoundSum += cursors[i].blockUpperBound(tables);
+					blockEnd = Math.min(blockEnd, cursors[i].blockLastDocument() + 1);
+				}
+			}
+			
+			if (blockBoundSum <= threshold) {
+				
+				// No document before the end of the blocks can make it to the top
+				if (pivot + 1 < cursors.length) {
+					blockEnd = Math.min(blockEnd, cursors[pivot + 1].document());
+				}
+				
+				for (int i = 0; i <= pivot; i++) {
+					cursors[i].advance(blockEnd);
+				}
+				
+			} else if (cursors[0].document() == pivotDocument) {
+				
+				// Fully score the pivot document in query term order
+				double score = 0;
+				for (TermCursor term : terms) {
+					if (term.document() == pivotDocument) {
+						int f = term.frequency();
+						score += term.weight * (k1Plus1 * f / (documentK[pivotDocument] + f));
+						term.advance(pivotDocument + 1);
+						postingsScored++;
+					}
+				}
+				
+				topDocuments.offer(pivotDocument, score);
+				documentsScored++;
+				
+			} else {
+				
+				// No document before the pivot can make it to the top
+				for (int i = 0; i < pivot; i++) {
+					cursors[i].advance(pivotDocument);
+				}
+				
+			}
+		}
+		
+		long scored = now(metrics);
+		
+		int[] documents = new int[topDocuments.size()];
+		double[] scores = new double[topDocuments.size()];
+		int count = topDocuments.drain(documents, scores);
+		
+		for (int i = 0; i < count; i++) {
+			documentRank.put(index.getDocumentId(documents[i]), scores[i]);
+		}
+		
+		if (metrics != null) {
+			recordQuery(metrics, start, parsed, scored, postingsScored, documentsScored);
+		}
+		
+		return documentRank;
+	}
+	
+	/**
+	 * Select the documents which may be in the top score-at-a-time on the
+	 * impact-ordered layout, then score them exactly. The selection allows for
+	 * the rounding of impacts, so the result is the exact top documents unless
+	 * the selection stopped at the time budget, which isTruncated then tells.
+	 * Phrases are ranked as separate words.
+	 * 
+	 * @param queryTermCount Map from query term to its frequency in the query
+	 * @param top The number of top documents to return
+	 * @param budgetNanos Time budget of the selection in nanoseconds, 0 for none
+	 * @param metrics The metrics to record to, or null
+	 * @param start Clock reading at the start of the query when recording metrics
+	 * @return Map from document id to its BM25 score, in decreasing order of score,
+	 *         or null if the top documents must be ranked document-at-a-time
+	 */
+	private Map<Integer, Double> runImpactOrdered(Map<String, Integer> queryTermCount, int top,
+			long budgetNanos, QueryMetrics metrics, long start) {
+		
+		ScoringTables tables = getTables();
+		PostingsIndex index = tables.index;
+		double[] documentK = tables.documentK;
+		double k1Plus1 = tables.k1 + 1;
+		
+		Map<Integer, Integer> termNumberCount = findQueryTerms(index, queryTermCount, false);
+		int[] termNumbers = new int[termNumberCount.size()];
+		double[] weights = new double[termNumbers.length];
+		double[] queryWeights = new double[termNumbers.length];
+		
+		int count = 0;
+		for (Map.Entry<Integer, Integer> entry : termNumberCount.entrySet()) {
+			termNumbers[count] = entry.getKey();
+			queryWeights[count] = tables.queryWeight(entry.getValue());
+			weights[count] = tables.idf[entry.getKey()] * queryWeights[count];
+			count++;
+		}
+		
+		long parsed = now(metrics);
+		long postingsScored = 0;
+		
+		ImpactIndex impactIndex = tables.getImpactIndex();
+		int[] documents = impactIndex.selectTop(termNumbers, queryWeights, top, budgetNanos);
+		truncated.set(Boolean.valueOf(impactIndex.isTruncated()));
+		if (documents == null) {
+			return null;
+		}
+		
+		// Score the selected documents in query term order, as exhaustive scoring does
+		double[] scores = new double[documents.length];
+		for (int i = 0; i < termNumbers.length; i++) {
+			PostingsCursor cursor = index.getCursor(termNumbers[i]);
+			
+			for (int j = 0; j < documents.length; j++) {
+				cursor.advance(documents[j]);
+				
+				if (cursor.document() == documents[j]) {
+					int f = cursor.frequency();
+					scores[j] += weights[i] * (k1Plus1 * f / (documentK[documents[j]] + f));
+					postingsScored++;
+				}
+			}
+		}
+		
+		long scored = now(metrics);
+		
+		TopK topDocuments = new TopK(top);
+		for (int j = 0; j < documents.length; j++) {
+			topDocuments.offer(documents[j], scores[j]);
+		}
+		
+		int[] topIds = new int[topDocuments.size()];
+		double[] topScores = new double[topIds.length];
+		int size = topDocuments.drain(topIds, topScores);
+		
+		Map<Integer, Double> documentRank = new LinkedHashMap<Integer, Double>();
+		for (int i = 0; i < size; i++) {
+			documentRank.put(index.getDocumentId(topIds[i]), topScores[i]);
+		}
+		
+		if (metrics != null) {
+			recordQuery(metrics, start, parsed, scored, postingsScored, documents.length);
+		}
+		
+		return documentRank;
+	}
+	
+	/**
+	 * Split the query into terms and count the occurrences of each term.
+	 * A quoted phrase, optionally followed by ~ and a window, counts as one
+	 * term made of its words separated by single spaces within the quotes.
+	 * 
+	 * @param query The query
+	 * @return Map from query term to its frequency in the query
+	 */
+	static Map<String, Integer> countQueryTerms(String query) {
 		Map<String, Integer> queryTermCount = new HashMap<String, Integer>();
 		
 		query = query.toLowerCase();
-		String[] words = query.split("\\s");
+		
+		if (query.indexOf('"') < 0) {
+			countWords(query.trim().split("\\s+"), queryTermCount);
+			queryTermCount.remove("");
+			return queryTermCount;
+		}
+		
+		// Words between phrases are split as above
+		Matcher matcher = Phrase.PATTERN.matcher(query);
+		int end = 0;
+		
+		while (matcher.find()) {
+			countWords(query.substring(end, matcher.start()).trim().split("\\s+"), queryTermCount);
+			end = matcher.end();
+			
+			String[] words = matcher.group(1).trim().split("\\s+");
+			if (words.length == 1) {
+				countWords(words, queryTermCount);
+				continue;
+			}
+			
+			StringBuilder phrase = new StringBuilder("\"");
+			for (int i = 0; i < words.length; i++) {
+				phrase.append(i == 0 ? "" : " ").append(words[i]);
+			}
+			phrase.append('"');
+			if (matcher.group(2) != null) {
+				phrase.append(matcher.group(2));
+			}
+			
+			countWords(new String[] {phrase.toString()}, queryTermCount);
+		}
+		
+		countWords(query.substring(end).trim().split("\\s+"), queryTermCount);
+		queryTermCount.remove("");
+		
+		return queryTermCount;
+	}
+	
+	private static void countWords(String[] words, Map<String, Integer> queryTermCount) {
 		
 		// Initialize Query Term Map
 		for (String word : words) {
@@ -76,40 +725,251 @@ public class BM25Algorithm {
 				termCount == null ? 1 : termCount + 1
 			);
 		}
+	}
+	
+	/**
+	 * Look up the term numbers of the query terms. A query term ending with
+	 * '*' is a truncation which stands for every term of the index starting
+	 * with the rest of it; those terms have consecutive term numbers from the
+	 * first term not smaller than the prefix. A term matched more than once
+	 * gets the sum of the query frequencies. Words of a phrase are looked up
+	 * as terms of their own unless phrases are matched.
+	 * 
+	 * @param index The index to look the terms up in
+	 * @param queryTermCount Map from query term to its frequency in the query
+	 * @param matchPhrases Whether phrases are matched on their own and left out
+	 * @return Map from term number to its frequency in the query, in query term order
+	 */
+	private static Map<Integer, Integer> findQueryTerms(PostingsIndex index,
+			Map<String, Integer> queryTermCount, boolean matchPhrases) {
+		
+		Map<Integer, Integer> termNumberCount = new LinkedHashMap<Integer, Integer>();
 		
-		// For each unique query term calculate BM25
 		for (Map.Entry<String, Integer> entry : queryTermCount.entrySet()) {
+			String term = entry.getKey();
+			Phrase phrase = Phrase.parse(term);
 			
-			String word = entry.getKey();
-			
-			if (!invertedIndex.containsKey(word)) {
-				continue;
+			if (phrase != null) {
+				if (!matchPhrases) {
+					for (String word : phrase.getTerms()) {
+						int termNumber = index.findTerm(word);
+						if (termNumber >= 0) {
+							addQueryTerm(termNumberCount, termNumber, entry.getValue());
+						}
+					}
+				}
+				
+			} else if (term.length() > 1 && term.endsWith("*")) {
+				String prefix = term.substring(0, term.length() - 1);
+				int termNumber = index.findFirstTerm(prefix);
+				
+				// Terms are decoded in order until one no longer starts with the prefix
+				Iterator<String> terms = index.getTerms(termNumber);
+				while (terms.hasNext() && terms.next().startsWith(prefix)) {
+					addQueryTerm(termNumberCount, termNumber, entry.getValue());
+					termNumber++;
+				}
+				
+			} else {
+				
+				int termNumber = index.findTerm(term);
+				if (termNumber >= 0) {
+					addQueryTerm(termNumberCount, termNumber, entry.getValue());
+				}
 			}
+		}
+		
+		return termNumberCount;
+	}
+	
+	/**
+	 * Collect the phrases of the query, if the index has positions to match them
+	 * 
+	 * @param index The index the phrases are matched in
+	 * @param queryTermCount Map from query term to its frequency in the query
+	 * @return Map from phrase to its frequency in the query, in query term order
+	 */
+	private static Map<Phrase, Integer> findPhrases(PostingsIndex index,
+			Map<String, Integer> queryTermCount) {
+		
+		Map<Phrase, Integer> phraseCount = new LinkedHashMap<Phrase, Integer>();
+		
+		if (index.hasPositions()) {
+			for (Map.Entry<String, Integer> entry : queryTermCount.entrySet()) {
+				Phrase phrase = Phrase.parse(entry.getKey());
+				if (phrase != null) {
+					phraseCount.put(phrase, entry.getValue());
+				}
+			}
+		}
+		
+		return phraseCount;
+	}
+	
+	private static void addQueryTerm(Map<Integer, Integer> termNumberCount, int termNumber,
+			int count) {
+		Integer termCount = termNumberCount.get(termNumber);
+		termNumberCount.put(termNumber, termCount == null ? count : termCount + count);
+	}
+	
+	/**
+	 * Tables of one snapshot of the index for given constants: the length
+	 * normalization K of each document number and the inverse document
+	 * frequency of each term number
+	 */
+	private static class ScoringTables {
+		
+		final PostingsIndex index;
+		final double k1;
+		final double k2;
+		final double b;
+		
+		// Stamp distinguishing these tables from those built before
+		final long version;
+		
+		// Average Document length
+		final double avdl;
+		
+		// K = k1 * ((1 - b) + b * dl / avdl) by document number
+		final double[] documentK;
+		
+		// Corpus Size
+		final int N;
+		
+		// log((N - n + 0.5) / (n + 0.5)) by term number
+		final double[] idf;
+		
+		// Impact-ordered layout of the index, built when first needed
+		private ImpactIndex impactIndex;
+		
+		ScoringTables(PostingsIndex index, double k1, double k2, double b, long version) {
+			this.index = index;
+			this.k1 = k1;
+			this.k2 = k2;
+			this.b = b;
+			this.version = version;
 			
-			int n = invertedIndex.get(word).size();
-			int qf = entry.getValue();
+			N = index.getNumberOfDocuments();
+			avdl = index.getTotalLength() / (double) N;
 			
-			for (Map.Entry<Integer, Integer> documentEntry : invertedIndex.get(word).entrySet()) {
-				
-				int documentNumber = documentEntry.getKey();
-				int dl = tokenCount.get(documentNumber);
-				int f = documentEntry.getValue();
-				
-				double K = k1 * ((1 - b) + (b * dl / avdl));
-				double documentWeight = (k1 + 1) * f / (K + f);
-				double queryWeight = (k2 + 1) * qf / (k2 + qf);
+			documentK = new double[index.getMaxDocument()];
+			for (int document = 0; document < documentK.length; document++) {
+				documentK[document] = lengthNormalization(index.getDocumentLength(document));
+			}
+			
+			idf = new double[index.getNumberOfTerms()];
+			for (int termNumber = 0; termNumber < idf.length; termNumber++) {
+				idf[termNumber] = inverseDocumentFrequency(index.getDocumentFrequency(termNumber));
+			}
+		}
+		
+		/**
+		 * Return the impact-ordered layout of the index, quantizing scores
+		 * up to the highest score of any impact of any term
+		 */
+		synchronized ImpactIndex getImpactIndex() {
+			if (impactIndex == null) {
+				double maxScore = 0;
 				
-				double score = Math.log((N - n + 0.5) / (n + 0.5)) * queryWeight * documentWeight;
+				for (int termNumber = 0; termNumber < idf.length; termNumber++) {
+					int[] impacts = index.getImpacts(termNumber);
+					for (int i = 0; i < impacts.length; i += 2) {
+						maxScore = Math.max(maxScore,
+								idf[termNumber] * documentWeight(impacts[i], impacts[i + 1]));
+					}
+				}
 				
-				Double currentScore = documentRank.get(documentNumber); 
-				documentRank.put(
-					documentNumber,
-					currentScore == null ? score : currentScore + score
-				);
+				impactIndex = new ImpactIndex(index, idf, documentK, k1, maxScore);
 			}
+			
+			return impactIndex;
 		}
 		
-		return documentRank;
+		/**
+		 * Calculate the IDF of a term occurring in n documents
+		 */
+		double inverseDocumentFrequency(int n) {
+			return Math.log((N - n + 0.5) / (n + 0.5));
+		}
+		
+		/**
+		 * Calculate the query weight of a term occurring qf times in the query
+		 */
+		double queryWeight(int qf) {
+			return (k2 + 1) * qf / (k2 + qf);
+		}
+		
+		/**
+		 * Calculate K of a document of the given length
+		 */
+		double lengthNormalization(int dl) {
+			return k1 * ((1 - b) + (b * dl / avdl));
+		}
+		
+		/**
+		 * Calculate the BM25 document weight of a term
+		 * 
+		 * @param f The frequency of the term in the document
+		 * @param dl The document length
+		 * @return The document weight
+		 */
+		double documentWeight(int f, int dl) {
+			return (k1 + 1) * f / (lengthNormalization(dl) + f);
+		}
+	}
+	
+	/**
+	 * Position in the postings of a query term during document-at-a-time scoring
+	 */
+	private static class TermCursor {
+		
+		private final PostingsCursor postings;
+		
+		// Inverse document frequency times query weight
+		final double weight;
+		
+		// Largest score this term adds to any document
+		final double upperBound;
+		
+		TermCursor(PostingsCursor postings, double weight, double upperBound) {
+			this.postings = postings;
+			this.weight = weight;
+			this.upperBound = upperBound;
+		}
+		
+		int document() {
+			return postings.document();
+		}
+		
+		int frequency() {
+			return postings.frequency();
+		}
+		
+		void advance(int target) {
+			postings.advance(target);
+		}
+		
+		boolean shallowAdvance(int target) {
+			return postings.shallowAdvance(target);
+		}
+		
+		int blockLastDocument() {
+			return postings.blockLastDocument();
+		}
+		
+		/**
+		 * Return the largest score this term adds to a document of the block
+		 * found by shallowAdvance
+		 */
+		double blockUpperBound(ScoringTables tables) {
+			if (weight <= 0) {
+				return 0;
+			}
+			
+			double blockBound = weight * tables.documentWeight(postings.blockMaxFrequency(),
+					postings.blockMinLength()) * (1 + UPPER_BOUND_SLACK);
+			return Math.min(blockBound, upperBound);
+		}
 	}
 	
 }
@@ -0,0 +1,442 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Long running BM25 query service over HTTP. The index is loaded once and
+ * shared read-only by all requests, and each request is handled on a thread
+ * of its own: a virtual thread when the JDK has them, or a thread of a fixed
+ * pool otherwise. Results are returned as JSON.
+ * 
+ * Endpoints:
+ *   GET  /search?q=query[&top=n]  top documents of one query
+ *   POST /batch[?top=n]           top documents of each line of the body
+ *   GET  /health                  status and size of the loaded index
+ *   GET  /metrics[?format=text]   latency of each stage of the query path
+ * 
+ * @author Adib
+ */
+public class BM25Server {
+	
+	// Number of top documents returned when a request does not say
+	private static final int DEFAULT_TOP = 100;
+	
+	// Most top documents a request may ask for
+	private static final int MAX_TOP = 10000;
+	
+	// Connections waiting to be accepted, enough for bursts of concurrent clients
+	private static final int BACKLOG = 4096;
+	
+	// Threads of the fallback pool per processor when there are no virtual threads
+	private static final int THREADS_PER_PROCESSOR = 4;
+	
+	private final PostingsIndex index;
+	private final BM25Algorithm algorithm;
+	private final QueryCache cache;
+	private final QueryMetrics metrics;
+	
+	private final long startTime = System.currentTimeMillis();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong queries = new AtomicLong();
+	
+	private HttpServer server;
+	private ExecutorService executor;
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 4) {
+			System.out.println("Format: <IndexFile> [Port] [CacheMB] [ImpactBudgetMicros]");
+			return;
+		}
+		
+		String indexFile = args[0];
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		long cacheBytes = args.length > 2 ? Long.parseLong(args[2]) * 1024 * 1024 : 0;
+		long impactBudget = args.length > 3 ? Long.parseLong(args[3]) * 1000 : -1;
+		
+		PostingsIndex index = BM25.loadIndex(indexFile);
+		BM25Algorithm algorithm = new BM25Algorithm(index, 1.2, 100, 0.75);
+		
+		if (impactBudget >= 0) {
+			algorithm.setImpactOrdered(true, impactBudget);
+		}
+		
+		QueryCache cache = null;
+		if (cacheBytes > 0) {
+			cache = new QueryCache(algorithm, cacheBytes, QueryCache.Policy.LRU);
+		}
+		
+		final BM25Server bm25Server = new BM25Server(index, algorithm, cache);
+		bm25Server.start(port);
+		
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				bm25Server.stop();
+			}
+		});
+		
+		System.out.println("Serving " + index.getNumberOfDocuments() + " documents on port " + port);
+	}
+	
+	/**
+	 * Initialize a server over a loaded index
+	 * 
+	 * @param index The loaded index
+	 * @param algorithm The BM25 algorithm over the index
+	 * @param cache The result cache in front of the algorithm, or null
+	 */
+	public BM25Server(PostingsIndex index, BM25Algorithm algorithm, QueryCache cache) {
+		this.index = index;
+		this.algorithm = algorithm;
+		this.cache = cache;
+		
+		// Metrics are cheap enough to always record in the server
+		metrics = new QueryMetrics();
+		algorithm.setMetrics(metrics);
+	}
+	
+	/**
+	 * Start serving requests on the given port
+	 * 
+	 * @param port The port to listen on, or 0 for any free port
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+		executor = newRequestExecutor();
+		server.setExecutor(executor);
+		
+		server.createContext("/search", new RequestHandler() {
+			@Override
+			void serve(HttpExchange exchange) throws IOException {
+				handleSearch(exchange);
+			}
+		});
+		
+		server.createContext("/batch", new RequestHandler() {
+			@Override
+			void serve(HttpExchange exchange) throws IOException {
+				handleBatch(exchange);
+			}
+		});
+		
+		server.createContext("/health", new RequestHandler() {
+			@Override
+			void serve(HttpExchange exchange) throws IOException {
+				handleHealth(exchange);
+			}
+		});
+		
+		server.createContext("/metrics", new RequestHandler() {
+			@Override
+			void serve(HttpExchange exchange) throws IOException {
+				handleMetrics(exchange);
+			}
+		});
+		
+		server.start();
+	}
+	
+	/**
+	 * Stop accepting requests, letting requests in progress finish for up to
+	 * a second
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Return the port the server listens on
+	 * 
+	 * @return The port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * Executor running each request on a virtual thread of its own. Virtual
+	 * threads are looked up by reflection so that the server still runs on
+	 * a JDK without them, on a fixed pool of platform threads. The modules
+	 * are built for Java 17, which has no virtual threads, so the pool is
+	 * what serves requests unless the classes are run on Java 21 or later.
+	 */
+	static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		} catch (ReflectiveOperationException exception) {
+			return Executors.newFixedThreadPool(
+					THREADS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+		}
+	}
+	
+	private void handleSearch(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		
+		if (!exchange.getRequestMethod().equals("GET")) {
+			sendError(exchange, 405, "Use GET");
+			return;
+		}
+		
+		Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+		String query = parameters.get("q");
+		int top = parseTop(parameters.get("top"));
+		
+		if (query == null || top < 0) {
+			sendError(exchange, 400, "Expected q and an optional top between 1 and " + MAX_TOP);
+			return;
+		}
+		
+		StringBuilder json = new StringBuilder();
+		appendResults(json, query, top);
+		send(exchange, 200, json.toString());
+	}
+	
+	private void handleBatch(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		
+		if (!exchange.getRequestMethod().equals("POST")) {
+			sendError(exchange, 405, "Use POST with one query per line");
+			return;
+		}
+		
+		Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+		int top = parseTop(parameters.get("top"));
+		
+		if (top < 0) {
+			sendError(exchange, 400, "Expected an optional top between 1 and " + MAX_TOP);
+			return;
+		}
+		
+		// Queries of a batch are ranked one after the other on the request's thread
+		StringBuilder json = new StringBuilder("[");
+		
+		try (
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+		) {
+			
+			String line;
+			boolean first = true;
+			
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				
+				if (!first) {
+					json.append(',');
+				}
+				appendResults(json, line, top);
+				first = false;
+			}
+		}
+		
+		json.append(']');
+		send(exchange, 200, json.toString());
+	}
+	
+	private void handleHealth(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		
+		StringBuilder json = new StringBuilder();
+		json.append("{\"status\":\"ok\"");
+		json.append(",\"documents\":").append(index.getNumberOfDocuments());
+		json.append(",\"terms\":").append(index.getNumberOfTerms());
+		json.append(",\"uptime_ms\":").append(System.currentTimeMillis() - startTime);
+		json.append(",\"requests\":").append(requests.get());
+		json.append(",\"queries\":").append(queries.get());
+		
+		if (cache != null) {
+			json.append(",\"cache_hits\":").append(cache.getHits());
+			json.append(",\"cache_misses\":").append(cache.getMisses());
+		}
+		
+		json.append('}');
+		send(exchange, 200, json.toString());
+	}
+	
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		
+		Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+		
+		if ("text".equals(parameters.get("format"))) {
+			byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			
+			try (
+				OutputStream outputStream = exchange.getResponseBody();
+			) {
+				outputStream.write(body);
+			}
+			return;
+		}
+		
+		send(exchange, 200, metrics.toJson());
+	}
+	
+	/**
+	 * Rank documents for a query and append them as a JSON object
+	 */
+	private void appendResults(StringBuilder json, String query, int top) {
+		long start = System.nanoTime();
+		
+		Map<Integer, Double> documentRank = cache != null ? cache.runBM25Algorithm(query, top)
+				: algorithm.runBM25Algorithm(query, top);
+		queries.incrementAndGet();
+		long ranked = System.nanoTime();
+		
+		json.append("{\"query\":");
+		appendString(json, query);
+		json.append(",\"took_us\":").append((System.nanoTime() - start) / 1000);
+		json.append(",\"results\":[");
+		
+		// Results are in decreasing order of score
+		int rank = 1;
+		for (Map.Entry<Integer, Double> entry : documentRank.entrySet()) {
+			if (rank > 1) {
+				json.append(',');
+			}
+			json.append("{\"rank\":").append(rank)
+					.append(",\"doc_id\":").append(entry.getKey())
+					.append(",\"score\":").append(entry.getValue())
+					.append('}');
+			rank++;
+		}
+		
+		json.append("]}");
+		metrics.record(QueryMetrics.Stage.OUTPUT, System.nanoTime() - ranked);
+	}
+	
+	/**
+	 * Append a string as a JSON string literal
+	 */
+	static void appendString(StringBuilder json, String value) {
+		json.append('"');
+		
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		
+		json.append('"');
+	}
+	
+	/**
+	 * Parse the parameters of a raw URI query
+	 */
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (rawQuery == null) {
+			return parameters;
+		}
+		
+		for (String pair : rawQuery.split("&")) {
+			int equals = pair.indexOf('=');
+			String name = equals < 0 ? pair : pair.substring(0, equals);
+			String value = equals < 0 ? "" : pair.substring(equals + 1);
+			
+			try {
+				parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+						URLDecoder.decode(value, StandardCharsets.UTF_8));
+			} catch (IllegalArgumentException exception) {
+				// Malformed escapes leave the parameter out
+			}
+		}
+		
+		return parameters;
+	}
+	
+	/**
+	 * Parse the number of top documents of a request
+	 * 
+	 * @return The number of top documents, or -1 if it is not valid
+	 */
+	private static int parseTop(String value) {
+		if (value == null) {
+			return DEFAULT_TOP;
+		}
+		
+		try {
+			int top = Integer.parseInt(value);
+			return top >= 1 && top <= MAX_TOP ? top : -1;
+		} catch (NumberFormatException exception) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Handler answering a request that fails with an unexpected exception with
+	 * a 500 error, and always closing the exchange so that the client is not
+	 * left waiting for a response
+	 */
+	private static abstract class RequestHandler implements HttpHandler {
+		
+		abstract void serve(HttpExchange exchange) throws IOException;
+		
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				serve(exchange);
+			} catch (RuntimeException exception) {
+				System.out.println("Unable to serve " + exchange.getRequestURI());
+				exception.printStackTrace();
+				
+				// Fails if the response was already started, and the exchange is closed anyway
+				try {
+					sendError(exchange, 500, "Internal error");
+				} catch (IOException sendException) {
+					// The client gets a truncated response
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+		
+	}
+	
+	private static void sendError(HttpExchange exchange, int status, String message)
+			throws IOException {
+		StringBuilder json = new StringBuilder("{\"error\":");
+		appendString(json, message);
+		json.append('}');
+		send(exchange, status, json.toString());
+	}
+	
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		
+		try (
+			OutputStream outputStream = exchange.getResponseBody();
+		) {
+			outputStream.write(body);
+		}
+	}
+	
+}
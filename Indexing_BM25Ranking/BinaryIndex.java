@@ -0,0 +1,632 @@
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+
+/**
+ * Read-only view of an inverted index stored in the binary index format.
+ * The file is memory-mapped, so loading costs no parsing and the heap holds
+ * no per-posting objects; postings are decoded only when a term is scored.
+ * 
+ * File layout (all fixed-width integers are big-endian):
+ * 
+ * Header:
+ *   int magic ("BM25"), int version, int number of documents,
+ *   int number of terms, long dictionary offset, long postings offset,
+ *   long positions offset (0 without positions)
+ * Document table, one entry per document sorted by document id:
+ *   int document id, int document length
+ * Term offset table, one entry per term sorted by term:
+ *   int offset of the term entry relative to the dictionary offset
+ * Terms, front-coded in sorted order as laid out by {@link TermDictionary}
+ * Dictionary, one entry per term sorted by term:
+ *   varint document frequency, varlong postings offset relative to the
+ *   postings offset, varlong positions offset relative to the positions
+ *   offset (only with positions), varint number of impacts, pairs of
+ *   (varint term frequency, varint document length)
+ * Postings, one list per term in blocks of 128 postings, the last one shorter:
+ *   skip data of each block: varint gap of the last document number to that of
+ *   the block before, varint block byte length (left out for the last block),
+ *   varint highest term frequency, varint shortest document length;
+ *   then each block: {@link PForDelta} gaps of document numbers, the first one
+ *   to the last document number of the block before, and PForDelta term
+ *   frequencies minus one
+ * Positions, one list per term in the same blocks as its postings:
+ *   varint byte length of the positions of each block but the last;
+ *   then for each posting: varint first position and varint gaps of the
+ *   other positions to the position before
+ * 
+ * Document numbers are dense positions into the document table, so
+ * postings can be delta encoded and document lengths looked up directly.
+ * Impacts bound the score of every posting of a term without decoding them,
+ * and the skip data lets a cursor jump over whole blocks. Positions are kept
+ * apart from the postings, so queries which do not read them never touch them.
+ * 
+ * Files over 2GB are mapped in several windows, one starting every 1GB and
+ * up to 2GB long, so that the postings or positions of a term, which are at
+ * most 1GB, lie within the window they start in. The header, the document
+ * and term offset tables and the terms must fit in the first 2GB, and the
+ * dictionary in 2GB.
+ * 
+ * @author Adib
+ */
+public class BinaryIndex implements PostingsIndex {
+	
+	// Format Constants
+	public static final int MAGIC = 0x424D3235;
+	public static final int VERSION = 6;
+	public static final int HEADER_SIZE = 40;
+	
+	// Distance between the starts of consecutive mapped windows, and most bytes of
+	// the postings or positions of a term
+	public static final int WINDOW_STEP = 1 << 30;
+	
+	// Windows of the file, the first one holding the header, tables and terms
+	private MappedByteBuffer[] windows;
+	private MappedByteBuffer buffer;
+	
+	// Terms, with the first term of every block held in memory
+	private TermDictionary terms;
+	
+	private int numberOfDocuments;
+	private int numberOfTerms;
+	private int documentTableOffset;
+	private int termTableOffset;
+	private long dictionaryOffset;
+	private long postingsOffset;
+	private long positionsOffset;
+	
+	// Sum of all document lengths
+	private long totalLength;
+	
+	/**
+	 * Check whether the given file starts with the binary index magic number
+	 * 
+	 * @param fileName The file to check
+	 * @return true iff the file is a binary index. False, otherwise
+	 */
+	public static boolean isBinaryIndex(String fileName) {
+		try (
+			DataInputStream input = new DataInputStream(new FileInputStream(fileName));
+		) {
+			
+			return input.readInt() == MAGIC;
+			
+		} catch (IOException exception) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Memory-map the binary index from the given input file name
+	 * 
+	 * @param fileName The filename to read the data from
+	 */
+	public void loadIndex(String fileName) {
+		try (
+			RandomAccessFile file = new RandomAccessFile(fileName, "r");
+			FileChannel channel = file.getChannel();
+		) {
+			
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException("Not a binary index: " + fileName);
+			}
+			
+			windows = new MappedByteBuffer[(int) ((size + WINDOW_STEP - 1) / WINDOW_STEP)];
+			for (int i = 0; i < windows.length; i++) {
+				long start = (long) i * WINDOW_STEP;
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(Integer.MAX_VALUE, size - start));
+			}
+			buffer = windows[0];
+			
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not a binary index: " + fileName);
+			}
+			
+			if (buffer.getInt(4) != VERSION) {
+				throw new IOException("Unsupported binary index version: " + buffer.getInt(4));
+			}
+			
+			numberOfDocuments = buffer.getInt(8);
+			numberOfTerms = buffer.getInt(12);
+			dictionaryOffset = buffer.getLong(16);
+			postingsOffset = buffer.getLong(24);
+			positionsOffset = buffer.getLong(32);
+			
+			// Tables and terms are read from the first window with int offsets
+			if (dictionaryOffset > Integer.MAX_VALUE) {
+				throw new IOException("Tables and terms of the binary index are over 2GB");
+			}
+			
+			documentTableOffset = HEADER_SIZE;
+			termTableOffset = documentTableOffset + numberOfDocuments * 8;
+			
+			buffer.position(termTableOffset + numberOfTerms * 4);
+			terms = new TermDictionary(buffer);
+			buffer.position(0);
+			
+			totalLength = 0;
+			for (int i = 0; i < numberOfDocuments; i++) {
+				totalLength += getDocumentLength(i);
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to read from input file");
+			exception.printStackTrace();
+			
+		}
+	}
+	
+	/**
+	 * Return the number of documents in the index
+	 * 
+	 * @return The number of documents
+	 */
+	@Override
+	public int getNumberOfDocuments() {
+		return numberOfDocuments;
+	}
+	
+	@Override
+	public int getNumberOfTerms() {
+		return numberOfTerms;
+	}
+	
+	@Override
+	public int getMaxDocument() {
+		return numberOfDocuments;
+	}
+	
+	/**
+	 * Return the sum of the lengths of all documents
+	 * 
+	 * @return The total number of tokens in the corpus
+	 */
+	@Override
+	public long getTotalLength() {
+		return totalLength;
+	}
+	
+	/**
+	 * Return the document id of the given document number
+	 * 
+	 * @param document The dense document number
+	 * @return The document id as found in the corpus
+	 */
+	@Override
+	public int getDocumentId(int document) {
+		return buffer.getInt(documentTableOffset + document * 8);
+	}
+	
+	/**
+	 * Return the number of tokens in the given document number
+	 * 
+	 * @param document The dense document number
+	 * @return The document length
+	 */
+	@Override
+	public int getDocumentLength(int document) {
+		return buffer.getInt(documentTableOffset + document * 8 + 4);
+	}
+	
+	/**
+	 * Look up the given term in the front-coded terms
+	 * 
+	 * @param term The term to look up
+	 * @return The term number, or -1 if the term is not in the index
+	 */
+	@Override
+	public int findTerm(String term) {
+		return terms.findTerm(term);
+	}
+	
+	@Override
+	public int findFirstTerm(String term) {
+		return terms.findFirstTerm(term);
+	}
+	
+	@Override
+	public String getTerm(int termNumber) {
+		return terms.getTerm(termNumber);
+	}
+	
+	@Override
+	public Iterator<String> getTerms(int termNumber) {
+		return terms.iterator(termNumber);
+	}
+	
+	/**
+	 * Return the number of documents containing the given term number
+	 * 
+	 * @param termNumber The term number
+	 * @return The document frequency
+	 */
+	@Override
+	public int getDocumentFrequency(int termNumber) {
+		ByteBuffer view = termEntry(termNumber);
+		return readVarInt(view);
+	}
+	
+	/**
+	 * Decode the postings of the given term number into the given arrays.
+	 * Both arrays must hold at least document frequency entries.
+	 * 
+	 * @param termNumber The term number
+	 * @param documents Filled with the dense document numbers
+	 * @param frequencies Filled with the term frequencies
+	 * @return The number of postings decoded
+	 */
+	public int readPostings(int termNumber, int[] documents, int[] frequencies) {
+		ByteBuffer entry = termEntry(termNumber);
+		int documentFrequency = readVarInt(entry);
+		long offset = readVarLong(entry);
+		
+		// Skip data is not needed to decode every block
+		ByteBuffer view = viewAt(postingsOffset + offset);
+		int blocks = (documentFrequency + Postings.BLOCK_SIZE - 1) / Postings.BLOCK_SIZE;
+		for (int i = 0; i < 4 * blocks - 1; i++) {
+			readVarInt(view);
+		}
+		
+		int previous = 0;
+		
+		for (int start = 0; start < documentFrequency; start += Postings.BLOCK_SIZE) {
+			int size = Math.min(Postings.BLOCK_SIZE, documentFrequency - start);
+			previous = decodeBlock(view, previous, documents, frequencies, start, size);
+		}
+		
+		return documentFrequency;
+	}
+	
+	/**
+	 * Decode one block of postings
+	 * 
+	 * @param view The buffer positioned at the block, left after it
+	 * @param previous The last document number of the block before
+	 * @param documents Filled with the dense document numbers
+	 * @param frequencies Filled with the term frequencies
+	 * @param offset Position of the first posting in the arrays
+	 * @param size Number of postings in the block
+	 * @return The last document number of the block
+	 */
+	private static int decodeBlock(ByteBuffer view, int previous, int[] documents,
+			int[] frequencies, int offset, int size) {
+		
+		PForDelta.decode(view, documents, offset, size);
+		PForDelta.decode(view, frequencies, offset, size);
+		
+		for (int i = offset; i < offset + size; i++) {
+			previous += documents[i];
+			documents[i] = previous;
+			frequencies[i]++;
+		}
+		
+		return previous;
+	}
+	
+	@Override
+	public Postings getPostings(int termNumber) {
+		int documentFrequency = getDocumentFrequency(termNumber);
+		int[] documents = new int[documentFrequency];
+		int[] frequencies = new int[documentFrequency];
+		readPostings(termNumber, documents, frequencies);
+		return new Postings(documents, frequencies, documentFrequency);
+	}
+	
+	@Override
+	public PostingsCursor getCursor(int termNumber) {
+		return new BlockCursor(termNumber);
+	}
+	
+	@Override
+	public int[] getImpacts(int termNumber) {
+		ByteBuffer view = termEntry(termNumber);
+		readVarInt(view);
+		readVarLong(view);
+		if (hasPositions()) {
+			readVarLong(view);
+		}
+		
+		int[] impacts = new int[2 * readVarInt(view)];
+		for (int i = 0; i < impacts.length; i++) {
+			impacts[i] = readVarInt(view);
+		}
+		
+		return impacts;
+	}
+	
+	@Override
+	public boolean hasPositions() {
+		return positionsOffset != 0;
+	}
+	
+	@Override
+	public PostingsIndex snapshot() {
+		return this;
+	}
+	
+	/**
+	 * Return a view positioned at the start of the dictionary entry of the term
+	 */
+	private ByteBuffer termEntry(int termNumber) {
+		return viewAt(dictionaryOffset + buffer.getInt(termTableOffset + termNumber * 4));
+	}
+	
+	/**
+	 * Return a view positioned at the given file position, in the window it
+	 * starts in, from which at least WINDOW_STEP bytes can be read
+	 */
+	private ByteBuffer viewAt(long position) {
+		ByteBuffer view = windows[(int) (position / WINDOW_STEP)].duplicate();
+		view.position((int) (position % WINDOW_STEP));
+		return view;
+	}
+	
+	/**
+	 * Read an unsigned LEB128 variable length integer
+	 * 
+	 * @param view The buffer to read from
+	 * @return The decoded value
+	 */
+	public static int readVarInt(ByteBuffer view) {
+		int value = 0;
+		int shift = 0;
+		byte current;
+		
+		do {
+			current = view.get();
+			value |= (current & 0x7F) << shift;
+			shift += 7;
+		} while (current < 0);
+		
+		return value;
+	}
+	
+	/**
+	 * Read an unsigned LEB128 variable length long
+	 * 
+	 * @param view The buffer to read from
+	 * @return The decoded value
+	 */
+	public static long readVarLong(ByteBuffer view) {
+		long value = 0;
+		int shift = 0;
+		byte current;
+		
+		do {
+			current = view.get();
+			value |= (long) (current & 0x7F) << shift;
+			shift += 7;
+		} while (current < 0);
+		
+		return value;
+	}
+	
+	/**
+	 * Write an unsigned LEB128 variable length integer
+	 * 
+	 * @param output The stream to write to
+	 * @param value The non negative value to encode
+	 */
+	public static void writeVarInt(DataOutput output, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+	
+	/**
+	 * Write an unsigned LEB128 variable length long
+	 * 
+	 * @param output The stream to write to
+	 * @param value The non negative value to encode
+	 */
+	public static void writeVarLong(DataOutput output, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			output.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+	
+	/**
+	 * Cursor which reads the skip data of a term when opened and decodes a
+	 * block only when it moves into it. Positions are located when they are
+	 * first read.
+	 */
+	private class BlockCursor implements PostingsCursor {
+		
+		private final ByteBuffer view;
+		private final int documentFrequency;
+		private final int blocks;
+		
+		// Skip data and buffer position of each block
+		private final int[] lastDocuments;
+		private final int[] maxFrequencies;
+		private final int[] minLengths;
+		private final int[] blockPositions;
+		
+		// Postings of the decoded block
+		private final int[] documents;
+		private final int[] frequencies;
+		private int block;
+		private int blockSize;
+		private int position;
+		
+		// Block found by shallowAdvance
+		private int skipBlock;
+		
+		// File position of the positions of the term, and buffer position of each block
+		private final long positionsStart;
+		private int[] positionBlockPositions;
+		
+		// Posting of the current block whose positions positionView is at
+		private ByteBuffer positionView;
+		private int positionBlock;
+		private int positionPosting;
+		
+		BlockCursor(int termNumber) {
+			ByteBuffer entry = termEntry(termNumber);
+			documentFrequency = readVarInt(entry);
+			long offset = readVarLong(entry);
+			positionsStart = hasPositions() ? positionsOffset + readVarLong(entry) : -1;
+			view = viewAt(postingsOffset + offset);
+			
+			blocks = (documentFrequency + Postings.BLOCK_SIZE - 1) / Postings.BLOCK_SIZE;
+			lastDocuments = new int[blocks];
+			maxFrequencies = new int[blocks];
+			minLengths = new int[blocks];
+			blockPositions = new int[blocks + 1];
+			
+			int[] blockLengths = new int[blocks];
+			int previous = 0;
+			for (int i = 0; i < blocks; i++) {
+				previous += readVarInt(view);
+				lastDocuments[i] = previous;
+				blockLengths[i] = i + 1 < blocks ? readVarInt(view) : 0;
+				maxFrequencies[i] = readVarInt(view);
+				minLengths[i] = readVarInt(view);
+			}
+			
+			blockPositions[0] = view.position();
+			for (int i = 0; i < blocks; i++) {
+				blockPositions[i + 1] = blockPositions[i] + blockLengths[i];
+			}
+			
+			documents = new int[Postings.BLOCK_SIZE];
+			frequencies = new int[Postings.BLOCK_SIZE];
+			block = -1;
+			
+			if (blocks > 0) {
+				decode(0);
+			}
+		}
+		
+		/**
+		 * Decode the given block and move to its first posting
+		 */
+		private void decode(int target) {
+			block = target;
+			blockSize = Math.min(Postings.BLOCK_SIZE, documentFrequency - block * Postings.BLOCK_SIZE);
+			view.position(blockPositions[block]);
+			decodeBlock(view, block == 0 ? 0 : lastDocuments[block - 1], documents, frequencies,
+					0, blockSize);
+			position = 0;
+		}
+		
+		@Override
+		public int document() {
+			return block < blocks && block >= 0 ? documents[position] : NO_MORE_DOCUMENTS;
+		}
+		
+		@Override
+		public int frequency() {
+			return frequencies[position];
+		}
+		
+		@Override
+		public void readPositions(int[] positions) {
+			if (positionsStart < 0) {
+				throw new UnsupportedOperationException("Index has no positions");
+			}
+			
+			if (positionBlockPositions == null) {
+				positionView = viewAt(positionsStart);
+				
+				int[] blockLengths = new int[blocks];
+				for (int i = 0; i + 1 < blocks; i++) {
+					blockLengths[i] = readVarInt(positionView);
+				}
+				
+				positionBlockPositions = new int[blocks];
+				positionBlockPositions[0] = positionView.position();
+				for (int i = 1; i < blocks; i++) {
+					positionBlockPositions[i] = positionBlockPositions[i - 1] + blockLengths[i - 1];
+				}
+				positionBlock = -1;
+			}
+			
+			if (positionBlock != block || positionPosting > position) {
+				positionView.position(positionBlockPositions[block]);
+				positionBlock = block;
+				positionPosting = 0;
+			}
+			
+			// Skip the positions of the postings before the current one
+			for (; positionPosting < position; positionPosting++) {
+				for (int i = 0; i < frequencies[positionPosting]; i++) {
+					readVarInt(positionView);
+				}
+			}
+			
+			int previous = 0;
+			for (int i = 0; i < frequencies[position]; i++) {
+				previous += readVarInt(positionView);
+				positions[i] = previous;
+			}
+			positionPosting++;
+		}
+		
+		@Override
+		public void advance(int target) {
+			if (block >= blocks || block < 0 || documents[position] >= target) {
+				return;
+			}
+			
+			// Jump over blocks ending before the target without decoding them
+			if (lastDocuments[block] < target) {
+				int next = block + 1;
+				while (next < blocks && lastDocuments[next] < target) {
+					next++;
+				}
+				
+				if (next == blocks) {
+					block = blocks;
+					return;
+				}
+				
+				decode(next);
+			}
+			
+			while (documents[position] < target) {
+				position++;
+			}
+		}
+		
+		@Override
+		public boolean shallowAdvance(int target) {
+			skipBlock = Math.max(skipBlock, block);
+			while (skipBlock < blocks && lastDocuments[skipBlock] < target) {
+				skipBlock++;
+			}
+			
+			return skipBlock < blocks;
+		}
+		
+		@Override
+		public int blockLastDocument() {
+			return lastDocuments[skipBlock];
+		}
+		
+		@Override
+		public int blockMaxFrequency() {
+			return maxFrequencies[skipBlock];
+		}
+		
+		@Override
+		public int blockMinLength() {
+			return minLengths[skipBlock];
+		}
+	}
+	
+}
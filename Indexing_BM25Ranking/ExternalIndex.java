@@ -0,0 +1,433 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+/**
+ * Index builder for corpora larger than the heap. Postings are buffered in
+ * memory until a memory budget is reached, then written to a temporary file
+ * as a run sorted by term and document id. When the corpus is read, all runs
+ * are merged k-way into the final index file, so the heap only ever holds
+ * one buffer of postings.
+ * 
+ * Run file layout: int number of terms, then for each term in sorted order:
+ * varint term byte length, UTF-8 term bytes, varint number of postings and
+ * pairs of (varint gap of document id, varint term frequency).
+ * 
+ * @author Adib
+ */
+public class ExternalIndex {
+	
+	// Estimated heap bytes of a buffered term besides its characters and postings
+	private static final int TERM_OVERHEAD = 128;
+	
+	// Initial number of postings buffered for a new term
+	private static final int INITIAL_POSTINGS = 2;
+	
+	// Size of the I/O buffers of run files
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+	
+	// Maximum heap bytes of buffered postings before spilling a run
+	private final long memoryBudget;
+	
+	// Directory in which the runs are created
+	private final File temporaryDirectory;
+	
+	/*
+	 * Map from Token to its buffered (document id, term frequency) pairs
+	 */
+	private final Map<String, PostingsBuffer> buffer;
+	
+	// Estimated heap bytes held by the buffer
+	private long bufferedBytes;
+	
+	// Runs written so far, in corpus order
+	private final List<File> runs;
+	
+	/**
+	 * Initialize an external index builder writing runs to the default
+	 * temporary directory
+	 * 
+	 * @param memoryBudget Maximum heap bytes of buffered postings
+	 */
+	public ExternalIndex(long memoryBudget) {
+		this(memoryBudget, new File(System.getProperty("java.io.tmpdir")));
+	}
+	
+	/**
+	 * Initialize an external index builder
+	 * 
+	 * @param memoryBudget Maximum heap bytes of buffered postings
+	 * @param temporaryDirectory Directory in which the runs are created
+	 */
+	public ExternalIndex(long memoryBudget, File temporaryDirectory) {
+		this.memoryBudget = memoryBudget;
+		this.temporaryDirectory = temporaryDirectory;
+		buffer = new HashMap<String, PostingsBuffer>();
+		runs = new ArrayList<File>();
+	}
+	
+	/**
+	 * Build an inverted index from the given corpus and write it to the given
+	 * file in the text format of printIndex method of the Printer class,
+	 * with terms in sorted order and postings by increasing document id
+	 * 
+	 * @param fileName The filename to read the corpus from
+	 * @param outputFile The name of the file to write the index to
+	 */
+	public void buildIndex(String fileName, String outputFile) {
+		try (
+			FileReader fileReader = new FileReader(fileName);
+			BufferedReader reader = new BufferedReader(fileReader);
+		) {
+			
+			String currentLine;
+			int currentDocument = 1;
+			List<String> tokens = new ArrayList<String>();
+			
+			while ((currentLine = reader.readLine()) != null) {
+				
+				// Start of a document
+				if (Index.isDocumentStart(currentLine)) {
+					currentDocument = Index.parseDocumentId(currentLine);
+					continue;
+				}
+				
+				tokens.clear();
+				Index.tokenize(currentLine, tokens);
+				
+				for (String token : tokens) {
+					addPosting(token, currentDocument);
+				}
+				
+				if (bufferedBytes >= memoryBudget) {
+					spillRun();
+				}
+			}
+			
+			if (!buffer.isEmpty() || runs.isEmpty()) {
+				spillRun();
+			}
+			
+			mergeRuns(outputFile);
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to build index");
+			exception.printStackTrace();
+			
+		} finally {
+			
+			for (File run : runs) {
+				run.delete();
+			}
+			runs.clear();
+			buffer.clear();
+			bufferedBytes = 0;
+			
+		}
+	}
+	
+	/**
+	 * Count one occurrence of the term in the given document
+	 * 
+	 * @param term The token
+	 * @param document The document id
+	 */
+	private void addPosting(String term, int document) {
+		PostingsBuffer postings = buffer.get(term);
+		
+		if (postings == null) {
+			postings = new PostingsBuffer();
+			buffer.put(term, postings);
+			bufferedBytes += TERM_OVERHEAD + 2L * term.length() + 8L * INITIAL_POSTINGS;
+		}
+		
+		bufferedBytes += postings.add(document);
+	}
+	
+	/**
+	 * Write the buffered postings as a run sorted by term and document id,
+	 * and empty the buffer
+	 */
+	private void spillRun() throws IOException {
+		String[] terms = buffer.keySet().toArray(new String[buffer.size()]);
+		Arrays.sort(terms);
+		
+		File run = File.createTempFile("index-run-", ".tmp", temporaryDirectory);
+		run.deleteOnExit();
+		runs.add(run);
+		
+		try (
+			DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(run), IO_BUFFER_SIZE));
+		) {
+			
+			outputStream.writeInt(terms.length);
+			
+			for (String term : terms) {
+				long[] postings = buffer.get(term).sortedPostings();
+				
+				byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+				BinaryIndex.writeVarInt(outputStream, termBytes.length);
+				outputStream.write(termBytes);
+				BinaryIndex.writeVarInt(outputStream, postings.length);
+				
+				int previous = 0;
+				for (long posting : postings) {
+					int document = (int) (posting >>> 32);
+					BinaryIndex.writeVarInt(outputStream, document - previous);
+					BinaryIndex.writeVarInt(outputStream, (int) posting);
+					previous = document;
+				}
+			}
+			
+		}
+		
+		buffer.clear();
+		bufferedBytes = 0;
+	}
+	
+	/**
+	 * Merge all runs into the final index file
+	 * 
+	 * @param outputFile The name of the file to write the index to
+	 */
+	private void mergeRuns(String outputFile) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(runs.size(),
+				new Comparator<RunReader>() {
+					@Override
+					public int compare(RunReader o1, RunReader o2) {
+						int compare = o1.term.compareTo(o2.term);
+						return compare != 0 ? compare : o1.runNumber - o2.runNumber;
+					}
+				});
+		
+		List<RunReader> readers = new ArrayList<RunReader>(runs.size());
+		
+		try (
+			IndexWriter outputStream = new IndexWriter(outputFile);
+		) {
+			
+			for (int i = 0; i < runs.size(); i++) {
+				RunReader reader = new RunReader(runs.get(i), i);
+				readers.add(reader);
+				
+				if (reader.nextTerm()) {
+					queue.add(reader);
+				}
+			}
+			
+			RunReader[] sameTerm = new RunReader[runs.size()];
+			
+			while (!queue.isEmpty()) {
+				
+				// Collect every run holding the smallest term
+				int count = 0;
+				sameTerm[count++] = queue.remove();
+				String term = sameTerm[0].term;
+				
+				while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+					sameTerm[count++] = queue.remove();
+				}
+				
+				outputStream.startTerm(term);
+				
+				for (int i = 0; i < count; i++) {
+					sameTerm[i].nextPosting();
+				}
+				
+				// Merge the postings of the runs by document id
+				while (true) {
+					int document = Integer.MAX_VALUE;
+					for (int i = 0; i < count; i++) {
+						if (sameTerm[i].hasPosting()) {
+							document = Math.min(document, sameTerm[i].document);
+						}
+					}
+					
+					if (document == Integer.MAX_VALUE) {
+						break;
+					}
+					
+					int termFrequency = 0;
+					for (int i = 0; i < count; i++) {
+						if (sameTerm[i].hasPosting() && sameTerm[i].document == document) {
+							termFrequency += sameTerm[i].termFrequency;
+							sameTerm[i].nextPosting();
+						}
+					}
+					
+					outputStream.addPosting(document, termFrequency);
+				}
+				
+				outputStream.endTerm();
+				
+				for (int i = 0; i < count; i++) {
+					if (sameTerm[i].nextTerm()) {
+						queue.add(sameTerm[i]);
+					}
+				}
+			}
+			
+		} finally {
+			
+			for (RunReader reader : readers) {
+				reader.close();
+			}
+			
+		}
+	}
+	
+	/**
+	 * Growable array of (document id, term frequency) pairs of a term
+	 */
+	private static class PostingsBuffer {
+		
+		private int[] pairs = new int[2 * INITIAL_POSTINGS];
+		private int size;
+		
+		/**
+		 * Count one occurrence in the given document
+		 * 
+		 * @param document The document id
+		 * @return The number of heap bytes the buffer grew by
+		 */
+		int add(int document) {
+			if (size > 0 && pairs[size - 2] == document) {
+				pairs[size - 1]++;
+				return 0;
+			}
+			
+			int grown = 0;
+			if (size == pairs.length) {
+				grown = 4 * pairs.length;
+				pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+			}
+			
+			pairs[size++] = document;
+			pairs[size++] = 1;
+			return grown;
+		}
+		
+		/**
+		 * Return the postings packed as document id in the high and term
+		 * frequency in the low 32 bits, sorted by document id with the
+		 * frequencies of a repeated document id summed up
+		 */
+		long[] sortedPostings() {
+			long[] postings = new long[size / 2];
+			for (int i = 0; i < postings.length; i++) {
+				postings[i] = ((long) pairs[2 * i] << 32) | pairs[2 * i + 1];
+			}
+			Arrays.sort(postings);
+			
+			int count = 0;
+			for (int i = 0; i < postings.length; i++) {
+				if (count > 0 && (postings[count - 1] >>> 32) == (postings[i] >>> 32)) {
+					postings[count - 1] += (int) postings[i];
+				} else {
+					postings[count++] = postings[i];
+				}
+			}
+			
+			return Arrays.copyOf(postings, count);
+		}
+	}
+	
+	/**
+	 * Sequential reader of a run file
+	 */
+	private static class RunReader {
+		
+		private final DataInputStream inputStream;
+		private final int runNumber;
+		private int remainingTerms;
+		
+		// Current term and its remaining postings
+		private String term;
+		private int remainingPostings;
+		
+		// Current posting of the term
+		private int document;
+		private int termFrequency;
+		private boolean hasPosting;
+		
+		RunReader(File run, int runNumber) throws IOException {
+			this.inputStream = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(run), IO_BUFFER_SIZE));
+			this.runNumber = runNumber;
+			remainingTerms = inputStream.readInt();
+		}
+		
+		/**
+		 * Move to the next term of the run
+		 * 
+		 * @return true iff there was a next term. False, otherwise
+		 */
+		boolean nextTerm() throws IOException {
+			if (remainingTerms == 0) {
+				return false;
+			}
+			
+			remainingTerms--;
+			byte[] termBytes = new byte[readVarInt()];
+			inputStream.readFully(termBytes);
+			term = new String(termBytes, StandardCharsets.UTF_8);
+			remainingPostings = readVarInt();
+			document = 0;
+			return true;
+		}
+		
+		/**
+		 * Move to the next posting of the current term
+		 */
+		void nextPosting() throws IOException {
+			hasPosting = remainingPostings > 0;
+			
+			if (hasPosting) {
+				remainingPostings--;
+				document += readVarInt();
+				termFrequency = readVarInt();
+			}
+		}
+		
+		boolean hasPosting() {
+			return hasPosting;
+		}
+		
+		private int readVarInt() throws IOException {
+			int value = 0;
+			int shift = 0;
+			int current;
+			
+			do {
+				current = inputStream.readUnsignedByte();
+				value |= (current & 0x7F) << shift;
+				shift += 7;
+			} while ((current & 0x80) != 0);
+			
+			return value;
+		}
+		
+		void close() throws IOException {
+			inputStream.close();
+		}
+	}
+	
+}
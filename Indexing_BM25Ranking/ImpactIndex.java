@@ -0,0 +1,427 @@
+import java.util.Arrays;
+
+
+/**
+ * Impact-ordered layout of an index for score-at-a-time ranking. The BM25
+ * score of every posting is quantized to an integer impact from 1 to
+ * IMPACT_LEVELS, and the postings of each term are stored in segments of equal
+ * impact, highest impact first, with increasing document numbers within a
+ * segment. The layout of a term is built the first time it is queried.
+ * 
+ * A query processes the segments of all its terms from the highest impact
+ * down, adding impacts to integer accumulators, and stops as soon as the
+ * impacts left cannot move any other document into the top documents, or
+ * when its time budget runs out. Impacts are rounded, so the accumulator of
+ * a document is only within an error margin of its score: every document
+ * whose accumulator is within the margin of the top documents is selected,
+ * and unless the budget ran out the exact top documents are among them.
+ * 
+ * @author Adib
+ */
+public class ImpactIndex {
+	
+	// Number of impact levels a score is quantized to
+	public static final int IMPACT_LEVELS = 255;
+	
+	private final PostingsIndex index;
+	private final double[] idf;
+	private final double[] documentK;
+	private final double k1Plus1;
+	
+	// Score of one impact level
+	private final double scale;
+	
+	// Layout of each term number, or null until it is queried
+	private final TermImpacts[] termImpacts;
+	
+	// Accumulators borrowed by each selection, reused from query to query
+	private final AccumulatorPool<ImpactAccumulator> accumulators = new AccumulatorPool<ImpactAccumulator>() {
+		@Override
+		protected ImpactAccumulator create() {
+			return new ImpactAccumulator();
+		}
+	};
+	
+	// Whether the last selection of each thread was cut short by its budget
+	private final ThreadLocal<Boolean> truncated = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return Boolean.FALSE;
+		}
+	};
+	
+	/**
+	 * Initialize an impact-ordered layout of an index
+	 * 
+	 * @param index The index whose postings are laid out
+	 * @param idf Inverse document frequency of each term number
+	 * @param documentK Length normalization K of each document number
+	 * @param k1 Term frequency saturation
+	 * @param maxScore Highest score of any posting, which gets the highest impact
+	 */
+	public ImpactIndex(PostingsIndex index, double[] idf, double[] documentK, double k1,
+			double maxScore) {
+		this.index = index;
+		this.idf = idf;
+		this.documentK = documentK;
+		this.k1Plus1 = k1 + 1;
+		scale = maxScore > 0 ? maxScore / IMPACT_LEVELS : 1;
+		termImpacts = new TermImpacts[index.getNumberOfTerms()];
+	}
+	
+	/**
+	 * Select the top documents of a query score-at-a-time. The clock of the
+	 * time budget starts once the layouts of the query terms are built, and
+	 * the highest impact segment of every term is processed whatever the
+	 * budget, so a query never comes back empty for having been the first to
+	 * use a term.
+	 * 
+	 * @param termNumbers Term numbers of the query terms
+	 * @param queryWeights Query weight of each query term
+	 * @param top The number of top documents to select
+	 * @param budgetNanos Time budget of the selection in nanoseconds, 0 for none
+	 * @return Document numbers of the documents which may be in the top documents,
+	 *         in increasing order, or null if accumulators cannot tell them apart
+	 *         from documents only matching terms which lower the score
+	 */
+	public int[] selectTop(int[] termNumbers, double[] queryWeights, int top, long budgetNanos) {
+		int terms = termNumbers.length;
+		TermImpacts[] layouts = new TermImpacts[terms];
+		
+		// Impact of each segment weighted by the query weight of its term
+		int[][] segmentImpacts = new int[terms][];
+		int numberOfSegments = 0;
+		int maxAccumulator = 0;
+		
+		// Most the scaled score of a document can be above its accumulator,
+		// and most it can be below, counting terms which lower the score
+		double errorAbove = 0;
+		double errorBelow = 0;
+		
+		for (int i = 0; i < terms; i++) {
+			layouts[i] = getTermImpacts(termNumbers[i]);
+			
+			// Rounding a posting to an impact is off by less than one level, and
+			// rounding the weighted impact by less than one more
+			if (idf[termNumbers[i]] > 0) {
+				errorAbove += queryWeights[i] + 1;
+				errorBelow += queryWeights[i] + 1;
+			} else {
+				errorBelow -= idf[termNumbers[i]] * queryWeights[i] * k1Plus1 / scale;
+			}
+			
+			int[] impacts = layouts[i].impacts;
+			segmentImpacts[i] = new int[impacts.length];
+			
+			for (int segment = 0; segment < impacts.length; segment++) {
+				segmentImpacts[i][segment] = Math.max(1,
+						(int) Math.round(impacts[segment] * queryWeights[i]));
+			}
+			
+			numberOfSegments += impacts.length;
+			if (impacts.length > 0) {
+				maxAccumulator += segmentImpacts[i][0];
+			}
+		}
+		
+		// Segments of all terms by decreasing weighted impact, packed as
+		// (impact, term, segment) so that sorting keeps each term in order
+		long[] order = new long[numberOfSegments];
+		int count = 0;
+		for (int i = 0; i < terms; i++) {
+			for (int segment = 0; segment < segmentImpacts[i].length; segment++) {
+				order[count++] = ((long) (Integer.MAX_VALUE - segmentImpacts[i][segment]) << 32)
+						| ((long) i << 16) | segment;
+			}
+		}
+		Arrays.sort(order);
+		
+		// Impacts of the segments not processed yet, by term and summed
+		int[] nextImpacts = new int[terms];
+		int remaining = 0;
+		for (int i = 0; i < terms; i++) {
+			nextImpacts[i] = segmentImpacts[i].length > 0 ? segmentImpacts[i][0] : 0;
+			remaining += nextImpacts[i];
+		}
+		
+		int maxDocument = index.getMaxDocument();
+		ImpactAccumulator accumulator = accumulators.borrow();
+		accumulator.ensureCapacity(maxDocument, maxAccumulator);
+		int[] values = accumulator.values;
+		int[] histogram = accumulator.histogram;
+		accumulator.truncated = false;
+		
+		// Number of documents with each accumulator value, and the top
+		// accumulators of rank top and top + 1
+		histogram[0] = maxDocument;
+		RankTracker kth = new RankTracker(top, maxDocument);
+		RankTracker next = new RankTracker(top + 1, maxDocument);
+		
+		// Margins rounded up, plus one against rounding errors of the sums
+		int marginAbove = (int) Math.ceil(errorAbove) + 1;
+		int marginBelow = (int) Math.ceil(errorBelow) + 1;
+		
+		long deadline = budgetNanos > 0 ? System.nanoTime() + budgetNanos : Long.MAX_VALUE;
+		boolean expired = false;
+		
+		try {
+			for (long packed : order) {
+				
+				// No document outside the top can catch up with the remaining impacts,
+				// even if the accumulators are off by as much as they can be
+				if (next.value + remaining + marginAbove < kth.value - marginBelow) {
+					break;
+				}
+				
+				int i = (int) (packed >>> 16) & 0xFFFF;
+				int segment = (int) packed & 0xFFFF;
+				
+				// Past the budget only the first segments of terms are left to process
+				if (!expired && System.nanoTime() > deadline) {
+					expired = true;
+				}
+				if (expired && segment > 0) {
+					accumulator.truncated = true;
+					continue;
+				}
+				
+				int impact = segmentImpacts[i][segment];
+				int[] documents = layouts[i].documents;
+				
+				for (int j = layouts[i].segmentStarts[segment]; j < layouts[i].segmentStarts[segment + 1]; j++) {
+					int document = documents[j];
+					int before = values[document];
+					int after = before + impact;
+					
+					if (before == 0) {
+						accumulator.touch(document);
+					}
+					
+					values[document] = after;
+					histogram[before]--;
+					histogram[after]++;
+					kth.update(before, after, histogram);
+					next.update(before, after, histogram);
+				}
+				
+				remaining -= nextImpacts[i];
+				nextImpacts[i] = segment + 1 < segmentImpacts[i].length ? segmentImpacts[i][segment + 1] : 0;
+				remaining += nextImpacts[i];
+			}
+			
+			// Past the budget the top accumulators are the best answer so far
+			if (accumulator.truncated) {
+				TopK topDocuments = new TopK(top);
+				for (int j = 0; j < accumulator.size; j++) {
+					int document = accumulator.touched[j];
+					topDocuments.offer(document, values[document]);
+				}
+				
+				int[] documents = new int[topDocuments.size()];
+				double[] scores = new double[documents.length];
+				topDocuments.drain(documents, scores);
+				Arrays.sort(documents);
+				
+				return documents;
+			}
+			
+			// Documents left untouched may only match terms lowering the score, and
+			// are only sure to be out of the top if its lowest score is positive
+			int threshold = kth.value - marginBelow;
+			if (threshold <= 0) {
+				return null;
+			}
+			
+			// Every document whose score may reach that of the top documents
+			int[] documents = new int[accumulator.size];
+			int candidates = 0;
+			for (int j = 0; j < accumulator.size; j++) {
+				int document = accumulator.touched[j];
+				if (values[document] + remaining + marginAbove >= threshold) {
+					documents[candidates++] = document;
+				}
+			}
+			
+			documents = Arrays.copyOf(documents, candidates);
+			Arrays.sort(documents);
+			
+			return documents;
+		} finally {
+			truncated.set(Boolean.valueOf(accumulator.truncated));
+			accumulator.clear(maxAccumulator);
+			accumulators.giveBack(accumulator);
+		}
+	}
+	
+	/**
+	 * Return whether the last selection of the calling thread stopped at its
+	 * time budget with segments left which could have changed the top
+	 * documents. Selections which are not truncated hold the exact top
+	 * documents.
+	 * 
+	 * @return true iff the selection was cut short by the budget
+	 */
+	public boolean isTruncated() {
+		return truncated.get();
+	}
+	
+	/**
+	 * Return the layout of the given term number, building it if needed.
+	 * Layouts are immutable, so threads racing to build one are harmless.
+	 */
+	private TermImpacts getTermImpacts(int termNumber) {
+		TermImpacts layout = termImpacts[termNumber];
+		
+		if (layout == null) {
+			layout = new TermImpacts(termNumber);
+			termImpacts[termNumber] = layout;
+		}
+		
+		return layout;
+	}
+	
+	/**
+	 * Postings of one term in segments of decreasing impact
+	 */
+	private class TermImpacts {
+		
+		// Document numbers of all segments one after the other
+		final int[] documents;
+		
+		// Impact of each segment and the start of each segment in documents
+		final int[] impacts;
+		final int[] segmentStarts;
+		
+		TermImpacts(int termNumber) {
+			Postings postings = index.getPostings(termNumber);
+			int size = postings.size();
+			
+			// Terms which lower the score are left out
+			if (idf[termNumber] <= 0) {
+				size = 0;
+			}
+			
+			// Counting sort by decreasing impact keeps documents increasing
+			int[] postingImpacts = new int[size];
+			int[] counts = new int[IMPACT_LEVELS + 2];
+			
+			for (int i = 0; i < size; i++) {
+				int document = postings.getDocuments()[i];
+				int f = postings.getFrequencies()[i];
+				double score = idf[termNumber] * (k1Plus1 * f / (documentK[document] + f));
+				
+				postingImpacts[i] = Math.min(IMPACT_LEVELS, Math.max(1, (int) Math.round(score / scale)));
+				counts[IMPACT_LEVELS - postingImpacts[i] + 1]++;
+			}
+			
+			int numberOfSegments = 0;
+			for (int level = 1; level < counts.length; level++) {
+				if (counts[level] > 0) {
+					numberOfSegments++;
+				}
+				counts[level] += counts[level - 1];
+			}
+			
+			documents = new int[size];
+			impacts = new int[numberOfSegments];
+			segmentStarts = new int[numberOfSegments + 1];
+			
+			int segment = 0;
+			for (int level = 0; level + 1 < counts.length; level++) {
+				if (counts[level + 1] > counts[level]) {
+					impacts[segment] = IMPACT_LEVELS - level;
+					segmentStarts[segment] = counts[level];
+					segment++;
+				}
+			}
+			segmentStarts[numberOfSegments] = size;
+			
+			for (int i = 0; i < size; i++) {
+				documents[counts[IMPACT_LEVELS - postingImpacts[i]]++] = postings.getDocuments()[i];
+			}
+		}
+	}
+	
+	/**
+	 * Integer accumulators of one query sized to the corpus, with the
+	 * documents touched by a query and the histogram of accumulator values,
+	 * cleared in time of the touched documents after each query
+	 */
+	private static class ImpactAccumulator {
+		
+		int[] values = new int[0];
+		int[] histogram = new int[1];
+		
+		// Touched document numbers, in the order they were first added to
+		int[] touched = new int[16];
+		int size;
+		
+		// Whether the last selection was cut short by its time budget
+		boolean truncated;
+		
+		/**
+		 * Make room for the documents of an index and accumulator values
+		 */
+		void ensureCapacity(int maxDocument, int maxAccumulator) {
+			if (values.length < maxDocument) {
+				values = new int[maxDocument];
+			}
+			if (histogram.length <= maxAccumulator) {
+				histogram = new int[maxAccumulator + 1];
+			}
+		}
+		
+		void touch(int document) {
+			if (size == touched.length) {
+				touched = Arrays.copyOf(touched, 2 * size);
+			}
+			touched[size++] = document;
+		}
+		
+		/**
+		 * Reset the touched accumulators and the histogram up to the largest
+		 * accumulator of the query
+		 */
+		void clear(int maxAccumulator) {
+			for (int i = 0; i < size; i++) {
+				values[touched[i]] = 0;
+			}
+			size = 0;
+			Arrays.fill(histogram, 0, maxAccumulator + 1, 0);
+		}
+	}
+	
+	/**
+	 * Value of the accumulator of a given rank, which only grows as
+	 * accumulators grow
+	 */
+	private static class RankTracker {
+		
+		private final int rank;
+		
+		// Accumulator of the given rank, and number of documents at or above it
+		int value;
+		private int atLeast;
+		
+		RankTracker(int rank, int numberOfDocuments) {
+			this.rank = rank;
+			atLeast = numberOfDocuments;
+		}
+		
+		/**
+		 * Account for an accumulator growing from before to after
+		 */
+		void update(int before, int after, int[] histogram) {
+			if (before < value && after >= value) {
+				atLeast++;
+			}
+			
+			// Move up while enough documents are above the current value
+			while (atLeast - histogram[value] >= rank) {
+				atLeast -= histogram[value];
+				value++;
+			}
+		}
+	}
+	
+}
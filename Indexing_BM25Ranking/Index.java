@@ -1,8 +1,18 @@
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -24,6 +34,12 @@ public class Index {
 	 */
 	private final Map<Integer, Integer> tokenCount;
 	
+	// Minimum number of corpus lines per shard of a parallel build
+	private static final int SHARD_SIZE = 16384;
+	
+	// Number of shards in flight per thread during a parallel build
+	private static final int SHARDS_PER_THREAD = 2;
+	
 	public Index() {
 		invertedIndex = new HashMap<String, Map<Integer, Integer>>();
 		tokenCount = new HashMap<Integer, Integer>();
@@ -46,32 +62,68 @@ public class Index {
 			while ((currentLine = reader.readLine()) != null) {
 				
 				// Start of a document
-				if (currentLine.matches("^#\\s*[0-9]+$")) {
-					
-					currentDocument = Integer.parseInt(currentLine.split("\\s")[1]);
-					
+				if (isDocumentStart(currentLine)) {
+					currentDocument = parseDocumentId(currentLine);
 				} else {
+					indexLine(currentLine, currentDocument, invertedIndex, false);
+				}
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to read from input file");
+			exception.printStackTrace();
+			
+		}
+	}
+	
+	/**
+	 * Build an inverted index from the given input file name on a pool of threads.
+	 * The corpus is cut into shards at document starts, each shard is indexed
+	 * into a partial index by a worker thread, and partial indexes are merged
+	 * in corpus order, so the result is the same as that of buildIndex.
+	 * 
+	 * @param fileName The filename to read the data from
+	 * @param threads The number of threads indexing shards
+	 */
+	public void buildIndex(String fileName, int threads) {
+		if (threads <= 1) {
+			buildIndex(fileName);
+			return;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Queue<Future<Map<String, Map<Integer, Integer>>>> pending =
+				new ArrayDeque<Future<Map<String, Map<Integer, Integer>>>>();
+		
+		try (
+			FileReader fileReader = new FileReader(fileName);
+			BufferedReader reader = new BufferedReader(fileReader);
+		) {
+			
+			String currentLine;
+			List<String> shard = new ArrayList<String>(SHARD_SIZE);
+			
+			while ((currentLine = reader.readLine()) != null) {
+				
+				// Cut shards only where a document starts
+				if (shard.size() >= SHARD_SIZE && isDocumentStart(currentLine)) {
+					pending.add(executor.submit(new ShardIndexer(shard)));
+					shard = new ArrayList<String>(SHARD_SIZE);
 					
-					String[] tokens = currentLine.split("\\s");
-					
-					for (String token : tokens) {
-						if (!token.matches("[0-9]+")) {
-							
-							token = token.toLowerCase();
-							if (!invertedIndex.containsKey(token)) {
-								invertedIndex.put(token, new HashMap<Integer, Integer>());
-							}
-							
-							Map<Integer, Integer> documentMap = invertedIndex.get(token);
-							Integer termFrequency = documentMap.get(currentDocument);
-							documentMap.put(
-									currentDocument,
-									termFrequency == null ? 1 : termFrequency + 1
-							);
-						}
+					// Merge the oldest shard once enough are in flight
+					if (pending.size() == threads * SHARDS_PER_THREAD) {
+						mergeIndex(pending.remove().get());
 					}
-					
 				}
+				
+				shard.add(currentLine);
+			}
+			
+			pending.add(executor.submit(new ShardIndexer(shard)));
+			
+			while (!pending.isEmpty()) {
+				mergeIndex(pending.remove().get());
 			}
 			
 		} catch (IOException exception) {
@@ -79,9 +131,213 @@ public class Index {
 			System.out.println("Unable to read from input file");
 			exception.printStackTrace();
 			
+		} catch (InterruptedException | ExecutionException exception) {
+			
+			System.out.println("Unable to index corpus");
+			exception.printStackTrace();
+			
+		} finally {
+			executor.shutdownNow();
 		}
 	}
-
+	
+	/**
+	 * Add a partial index to the inverted index. Terms and documents are
+	 * added in the order they were first seen in the partial index.
+	 * 
+	 * @param partialIndex Map from Token to a map from document id to term frequency
+	 */
+	private void mergeIndex(Map<String, Map<Integer, Integer>> partialIndex) {
+		for (Map.Entry<String, Map<Integer, Integer>> entry : partialIndex.entrySet()) {
+			
+			Map<Integer, Integer> documentMap = invertedIndex.get(entry.getKey());
+			if (documentMap == null) {
+				documentMap = new HashMap<Integer, Integer>();
+				invertedIndex.put(entry.getKey(), documentMap);
+			}
+			
+			for (Map.Entry<Integer, Integer> documentEntry : entry.getValue().entrySet()) {
+				Integer termFrequency = documentMap.get(documentEntry.getKey());
+				documentMap.put(
+						documentEntry.getKey(),
+						termFrequency == null ? documentEntry.getValue()
+								: termFrequency + documentEntry.getValue()
+				);
+			}
+		}
+	}
+	
+	/**
+	 * Task indexing a shard of the corpus into a partial index which keeps
+	 * terms and documents in the order they were first seen
+	 */
+	private static class ShardIndexer implements Callable<Map<String, Map<Integer, Integer>>> {
+		
+		private final List<String> lines;
+		
+		ShardIndexer(List<String> lines) {
+			this.lines = lines;
+		}
+		
+		@Override
+		public Map<String, Map<Integer, Integer>> call() {
+			Map<String, Map<Integer, Integer>> partialIndex =
+					new LinkedHashMap<String, Map<Integer, Integer>>();
+			
+			// Only the first shard can have lines before a document start
+			int currentDocument = 1;
+			
+			for (String currentLine : lines) {
+				if (isDocumentStart(currentLine)) {
+					currentDocument = parseDocumentId(currentLine);
+				} else {
+					indexLine(currentLine, currentDocument, partialIndex, true);
+				}
+			}
+			
+			return partialIndex;
+		}
+	}
+	
+	/**
+	 * Check whether the line starts a document i.e. matches "#\s*[0-9]+"
+	 * 
+	 * @param line The line to check
+	 * @return true iff the line starts a document. False, otherwise
+	 */
+	static boolean isDocumentStart(String line) {
+		int length = line.length();
+		
+		if (length < 2 || line.charAt(0) != '#') {
+			return false;
+		}
+		
+		int i = 1;
+		while (i < length && isWhitespace(line.charAt(i))) {
+			i++;
+		}
+		
+		if (i == length) {
+			return false;
+		}
+		
+		for (; i < length; i++) {
+			if (!isDigit(line.charAt(i))) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Parse the document id of a line starting a document
+	 * 
+	 * @param line The line starting a document
+	 * @return The document id
+	 */
+	static int parseDocumentId(String line) {
+		int i = 1;
+		while (isWhitespace(line.charAt(i))) {
+			i++;
+		}
+		
+		return Integer.parseInt(line.substring(i));
+	}
+	
+	/**
+	 * Add the tokens of a line of the given document to an index
+	 * 
+	 * @param line The line to tokenize
+	 * @param document The document id the line belongs to
+	 * @param index Map from Token to a map from document id to term frequency
+	 * @param ordered Whether new document maps keep the order of insertion
+	 */
+	private static void indexLine(String line, int document,
+			Map<String, Map<Integer, Integer>> index, boolean ordered) {
+		
+		List<String> tokens = new ArrayList<String>();
+		tokenize(line, tokens);
+		
+		for (String token : tokens) {
+			Map<Integer, Integer> documentMap = index.get(token);
+			if (documentMap == null) {
+				documentMap = ordered ? new LinkedHashMap<Integer, Integer>()
+						: new HashMap<Integer, Integer>();
+				index.put(token, documentMap);
+			}
+			
+			Integer termFrequency = documentMap.get(document);
+			documentMap.put(
+					document,
+					termFrequency == null ? 1 : termFrequency + 1
+			);
+		}
+	}
+	
+	/**
+	 * Split a line of a document into lower cased tokens. Tokens are
+	 * separated by single whitespace characters as with split("\s") and
+	 * tokens made of digits only are skipped.
+	 * 
+	 * @param line The line to tokenize
+	 * @param tokens The list to add the tokens to
+	 */
+	static void tokenize(String line, List<String> tokens) {
+		
+		// split drops trailing empty tokens, but keeps the only token of an empty line
+		int end = line.length();
+		while (end > 0 && isWhitespace(line.charAt(end - 1))) {
+			end--;
+		}
+		
+		if (end == 0 && !line.isEmpty()) {
+			return;
+		}
+		
+		int start = 0;
+		
+		for (int i = 0; i <= end; i++) {
+			if (i < end && !isWhitespace(line.charAt(i))) {
+				continue;
+			}
+			
+			if (!isNumber(line, start, i)) {
+				tokens.add(line.substring(start, i).toLowerCase());
+			}
+			
+			start = i + 1;
+		}
+	}
+	
+	/**
+	 * Check whether the characters from start to end are all digits
+	 */
+	private static boolean isNumber(String line, int start, int end) {
+		if (start == end) {
+			return false;
+		}
+		
+		for (int i = start; i < end; i++) {
+			if (!isDigit(line.charAt(i))) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	/**
+	 * Check whether the character matches the regular expression \s
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+	
 	/**
 	 * Load an inverted index from the given input file name
 	 * 
@@ -0,0 +1,51 @@
+/**
+ * Add documents to, delete documents from or merge the segments of a
+ * segmented index without rebuilding it
+ * 
+ * @author Adib
+ */
+public class IndexUpdater {
+	
+	public static void main(String[] args) {
+		if (args.length < 2 || !(args[1].equals("add") && args.length >= 3 && args.length <= 4
+				|| args[1].equals("delete") && args.length >= 3
+				|| args[1].equals("merge") && args.length == 2)) {
+			System.out.println("Format: <IndexDirectory> add <Corpus> [Threads]");
+			System.out.println("        <IndexDirectory> delete <DocumentId>...");
+			System.out.println("        <IndexDirectory> merge");
+			return;
+		}
+		
+		String indexDirectory = args[0];
+		String command = args[1];
+		
+		SegmentedIndex index = new SegmentedIndex();
+		index.loadIndex(indexDirectory);
+		
+		if (command.equals("add")) {
+			
+			int threads = args.length > 3 ? Integer.parseInt(args[3])
+					: Runtime.getRuntime().availableProcessors();
+			index.addDocuments(args[2], threads);
+			
+		} else if (command.equals("delete")) {
+			
+			int[] documentIds = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++) {
+				documentIds[i - 2] = Integer.parseInt(args[i]);
+			}
+			index.deleteDocuments(documentIds);
+			
+		} else {
+			
+			index.mergeSegments();
+			
+		}
+		
+		// Wait for a merge started by the update
+		index.close();
+		
+		System.out.println(index.getNumberOfDocuments() + " documents in "
+				+ index.getMaxDocument() + " document numbers");
+	}
+}
@@ -0,0 +1,147 @@
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+
+/**
+ * Streaming writer of the text index format, one term at a time:
+ * token (document id,term frequency) (document id,term frequency) ...
+ * Output goes through a large direct buffer straight to the file channel and
+ * numbers are written digit by digit, so no string is created per posting.
+ * 
+ * @author Adib
+ */
+public class IndexWriter implements Closeable {
+	
+	// Size of the output buffer
+	private static final int BUFFER_SIZE = 1 << 20;
+	
+	// Longest text of an int: sign and ten digits
+	private static final int MAX_INT_LENGTH = 11;
+	
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+	
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	
+	// Digits of the number being written, filled from the end
+	private final byte[] digits;
+	
+	/**
+	 * Create or truncate the given file for writing
+	 * 
+	 * @param outputFile The name of the file to write to
+	 */
+	public IndexWriter(String outputFile) throws IOException {
+		channel = new FileOutputStream(outputFile).getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		digits = new byte[MAX_INT_LENGTH];
+	}
+	
+	/**
+	 * Start the line of a term
+	 * 
+	 * @param term The token
+	 */
+	public void startTerm(String term) throws IOException {
+		byte[] termBytes = term.getBytes(Charset.defaultCharset());
+		
+		if (termBytes.length + 1 > buffer.remaining()) {
+			flush();
+		}
+		
+		if (termBytes.length + 1 > buffer.remaining()) {
+			ByteBuffer termBuffer = ByteBuffer.wrap(termBytes);
+			while (termBuffer.hasRemaining()) {
+				channel.write(termBuffer);
+			}
+		} else {
+			buffer.put(termBytes);
+		}
+		
+		buffer.put((byte) ' ');
+	}
+	
+	/**
+	 * Write a posting of the current term
+	 * 
+	 * @param document The document id
+	 * @param termFrequency The term frequency in the document
+	 */
+	public void addPosting(int document, int termFrequency) throws IOException {
+		if (buffer.remaining() < 2 * MAX_INT_LENGTH + 4) {
+			flush();
+		}
+		
+		buffer.put((byte) '(');
+		putInt(document);
+		buffer.put((byte) ',');
+		putInt(termFrequency);
+		buffer.put((byte) ')');
+		buffer.put((byte) ' ');
+	}
+	
+	/**
+	 * End the line of the current term
+	 */
+	public void endTerm() throws IOException {
+		if (buffer.remaining() < LINE_SEPARATOR.length) {
+			flush();
+		}
+		
+		buffer.put(LINE_SEPARATOR);
+	}
+	
+	/**
+	 * Put the decimal digits of the value into the buffer
+	 */
+	private void putInt(int value) {
+		if (value == Integer.MIN_VALUE) {
+			buffer.put(Integer.toString(value).getBytes());
+			return;
+		}
+		
+		boolean negative = value < 0;
+		if (negative) {
+			value = -value;
+		}
+		
+		int position = digits.length;
+		do {
+			digits[--position] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		
+		if (negative) {
+			digits[--position] = '-';
+		}
+		
+		buffer.put(digits, position, digits.length - position);
+	}
+	
+	/**
+	 * Write the buffered bytes to the file
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		
+		buffer.clear();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+	
+}
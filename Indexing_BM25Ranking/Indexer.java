@@ -8,17 +8,43 @@ import java.util.Map;
 public class Indexer {
 
 	public static void main(String[] args) {
-		if (args.length != 2) {
-			System.out.println("Format: <Corpus> <IndexFile>");
+		if (args.length < 2 || args.length > 5 || (args.length > 2 && !args[2].equals("text")
+				&& !args[2].equals("sorted") && !args[2].equals("binary")
+				&& !args[2].equals("positional"))) {
+			System.out.println(
+					"Format: <Corpus> <IndexFile> [text|sorted|binary|positional] [Threads] [MemoryMB]");
 			return;
 		}
 		
 		String inputCorpus = args[0];
 		String outputFile = args[1];
+		boolean positional = args.length > 2 && args[2].equals("positional");
+		boolean binary = positional || args.length > 2 && args[2].equals("binary");
+		boolean sorted = args.length > 2 && args[2].equals("sorted");
+		int threads = args.length > 3 ? Integer.parseInt(args[3])
+				: Runtime.getRuntime().availableProcessors();
+		long memoryBudget = args.length > 4 ? Long.parseLong(args[4]) * 1024 * 1024 : 0;
+		
+		// Spill postings to disk when a memory budget is given
+		if (memoryBudget > 0) {
+			if (binary) {
+				System.out.println("Memory bounded build writes text index only");
+				return;
+			}
+			
+			ExternalIndex externalIndex = new ExternalIndex(memoryBudget);
+			externalIndex.buildIndex(inputCorpus, outputFile);
+			return;
+		}
 		
 		Index index = new Index();
-		index.buildIndex(inputCorpus);
+		index.buildIndex(inputCorpus, threads);
 		Map<String, Map<Integer, Integer>> invertedIndex = index.getInvertedIndex();
-		Printer.printIndex(outputFile, invertedIndex);
+		
+		if (binary) {
+			Printer.printBinaryIndex(outputFile, invertedIndex, positional ? inputCorpus : null);
+		} else {
+			Printer.printIndex(outputFile, invertedIndex, sorted);
+		}
 	}
 }
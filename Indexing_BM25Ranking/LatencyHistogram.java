@@ -0,0 +1,140 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Histogram of latencies in nanoseconds with a bounded relative error, in
+ * the manner of an HDR histogram. Values below 2^SUB_BUCKET_BITS are counted
+ * exactly, and every larger power of two range is split into 2^SUB_BUCKET_BITS
+ * equal buckets, so a value is known to within about 3% whatever its
+ * magnitude. Recording is an index computation and an atomic increment, and
+ * is safe from any number of threads.
+ * 
+ * @author Adib
+ */
+public class LatencyHistogram {
+	
+	// Buckets per power of two, 2^5 = 32 for a relative error of at most 1/32
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	
+	// Exact values below SUB_BUCKETS, then SUB_BUCKETS buckets for every
+	// power of two up to the largest long
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Record a latency
+	 * 
+	 * @param nanos The latency in nanoseconds, negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		
+		long previous = max.get();
+		while (value > previous && !max.compareAndSet(previous, value)) {
+			previous = max.get();
+		}
+	}
+	
+	/**
+	 * Return the number of recorded latencies
+	 * 
+	 * @return The number of latencies
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/**
+	 * Return the mean of the recorded latencies
+	 * 
+	 * @return The mean in nanoseconds, or 0 if none was recorded
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+	
+	/**
+	 * Return the largest recorded latency
+	 * 
+	 * @return The largest latency in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Return the latency below which the given fraction of the recorded
+	 * latencies fall, as the highest value of its bucket
+	 * 
+	 * @param fraction The fraction between 0 and 1, e.g. 0.99
+	 * @return The latency in nanoseconds, or 0 if none was recorded
+	 */
+	public long getPercentile(double fraction) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		
+		if (total == 0) {
+			return 0;
+		}
+		
+		// Rank of the latency, counting from 1
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		
+		return max.get();
+	}
+	
+	/**
+	 * Bucket of a value
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		
+		// Highest set bit, and the SUB_BUCKET_BITS bits below it
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	/**
+	 * Highest value counted in a bucket
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		
+		return lowest + (1L << shift) - 1;
+	}
+	
+}
@@ -0,0 +1,141 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Patched frame-of-reference codec for blocks of up to 128 non negative ints.
+ * All values are bit-packed with one bit width chosen to minimize the block
+ * size, and the few values that need more bits are stored as exceptions
+ * holding their high bits, so one large gap does not widen the whole block.
+ * 
+ * Block layout:
+ *   byte bit width, byte number of exceptions,
+ *   values packed little-endian in (number of values * bit width) bits
+ *   rounded up to whole bytes,
+ *   for each exception: byte position, varint high bits (value >>> bit width)
+ * 
+ * @author Adib
+ */
+public class PForDelta {
+	
+	// Largest number of values in a block, so positions fit in a byte
+	public static final int MAX_BLOCK_SIZE = 128;
+	
+	/**
+	 * Encode the given values as one block
+	 * 
+	 * @param values Array holding the values
+	 * @param offset Position of the first value
+	 * @param size Number of values, at most MAX_BLOCK_SIZE
+	 * @param output The stream to write to
+	 */
+	public static void encode(int[] values, int offset, int size, DataOutput output)
+			throws IOException {
+		
+		int bitWidth = bestBitWidth(values, offset, size);
+		long mask = (1L << bitWidth) - 1;
+		
+		int exceptions = 0;
+		for (int i = 0; i < size; i++) {
+			if ((values[offset + i] & 0xFFFFFFFFL) > mask) {
+				exceptions++;
+			}
+		}
+		
+		output.writeByte(bitWidth);
+		output.writeByte(exceptions);
+		
+		// Pack the low bits of every value
+		long buffer = 0;
+		int bits = 0;
+		
+		for (int i = 0; i < size; i++) {
+			buffer |= (values[offset + i] & mask) << bits;
+			bits += bitWidth;
+			
+			while (bits >= 8) {
+				output.writeByte((int) buffer);
+				buffer >>>= 8;
+				bits -= 8;
+			}
+		}
+		
+		if (bits > 0) {
+			output.writeByte((int) buffer);
+		}
+		
+		// Patch in the high bits of the exceptions
+		for (int i = 0; i < size && exceptions > 0; i++) {
+			if ((values[offset + i] & 0xFFFFFFFFL) > mask) {
+				output.writeByte(i);
+				BinaryIndex.writeVarInt(output, values[offset + i] >>> bitWidth);
+			}
+		}
+	}
+	
+	/**
+	 * Decode one block into the given array
+	 * 
+	 * @param input The buffer positioned at the start of the block, left after it
+	 * @param values Filled with the values
+	 * @param offset Position of the first value
+	 * @param size Number of values in the block
+	 */
+	public static void decode(ByteBuffer input, int[] values, int offset, int size) {
+		int bitWidth = input.get() & 0xFF;
+		int exceptions = input.get() & 0xFF;
+		long mask = (1L << bitWidth) - 1;
+		
+		long buffer = 0;
+		int bits = 0;
+		
+		for (int i = 0; i < size; i++) {
+			while (bits < bitWidth) {
+				buffer |= (input.get() & 0xFFL) << bits;
+				bits += 8;
+			}
+			
+			values[offset + i] = (int) (buffer & mask);
+			buffer >>>= bitWidth;
+			bits -= bitWidth;
+		}
+		
+		for (int i = 0; i < exceptions; i++) {
+			int position = input.get() & 0xFF;
+			values[offset + position] |= BinaryIndex.readVarInt(input) << bitWidth;
+		}
+	}
+	
+	/**
+	 * Choose the bit width giving the smallest block for the values
+	 */
+	private static int bestBitWidth(int[] values, int offset, int size) {
+		
+		// Number of values needing exactly each number of bits
+		int[] counts = new int[33];
+		for (int i = 0; i < size; i++) {
+			counts[32 - Integer.numberOfLeadingZeros(values[offset + i])]++;
+		}
+		
+		int bestWidth = 32;
+		long bestSize = Long.MAX_VALUE;
+		
+		for (int width = 32; width >= 0; width--) {
+			long blockSize = ((long) size * width + 7) / 8;
+			
+			// An exception costs its position and the varint of its high bits
+			for (int bitsNeeded = width + 1; bitsNeeded <= 32; bitsNeeded++) {
+				blockSize += counts[bitsNeeded] * (1 + (bitsNeeded - width + 6) / 7);
+			}
+			
+			if (blockSize < bestSize) {
+				bestSize = blockSize;
+				bestWidth = width;
+			}
+		}
+		
+		return bestWidth;
+	}
+	
+}
@@ -0,0 +1,278 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Phrase or proximity operator of a query, matched on the positions of its
+ * terms. "a b c" matches the terms at consecutive positions in that order,
+ * and "a b c"~N matches the terms in any order within N consecutive
+ * positions. Documents are found by leapfrogging the cursors of the terms,
+ * and positions are only decoded for documents holding all of the terms,
+ * where the position lists are intersected with galloping search.
+ * 
+ * @author Adib
+ */
+public class Phrase {
+	
+	// A quoted phrase with an optional proximity window
+	static final Pattern PATTERN = Pattern.compile("\"([^\"]*)\"(~([0-9]+))?");
+	
+	private final String[] terms;
+	
+	// Window of a proximity operator, or 0 for a phrase
+	private final int window;
+	
+	/**
+	 * Initialize a phrase
+	 * 
+	 * @param terms The terms of the phrase in order
+	 * @param window The number of positions all terms must occur within,
+	 *        or 0 to match the terms at consecutive positions
+	 */
+	public Phrase(String[] terms, int window) {
+		this.terms = terms;
+		this.window = window;
+	}
+	
+	/**
+	 * Parse a phrase query term as returned by BM25Algorithm.countQueryTerms
+	 * 
+	 * @param queryTerm The query term
+	 * @return The phrase, or null if the query term is not a phrase
+	 */
+	public static Phrase parse(String queryTerm) {
+		Matcher matcher = PATTERN.matcher(queryTerm);
+		
+		if (!matcher.matches() || matcher.group(1).indexOf(' ') < 0) {
+			return null;
+		}
+		
+		int window = matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3));
+		return new Phrase(matcher.group(1).split(" "), window);
+	}
+	
+	public String[] getTerms() {
+		return terms;
+	}
+	
+	/**
+	 * Find the documents matching the phrase in an index with positions
+	 * 
+	 * @param index The index to match the phrase in
+	 * @return Postings of the matching documents, with the number of matches
+	 *         in each document as term frequency
+	 */
+	public Postings match(PostingsIndex index) {
+		
+		// Terms of a proximity operator are only looked for once
+		String[] phraseTerms = window == 0 ? terms
+				: new LinkedHashSet<String>(Arrays.asList(terms)).toArray(new String[0]);
+		int n = phraseTerms.length;
+		
+		PostingsCursor[] cursors = new PostingsCursor[n];
+		final int[] documentFrequencies = new int[n];
+		
+		for (int i = 0; i < n; i++) {
+			int termNumber = index.findTerm(phraseTerms[i]);
+			if (termNumber < 0) {
+				return new Postings(new int[0], new int[0], 0);
+			}
+			
+			cursors[i] = index.getCursor(termNumber);
+			documentFrequencies[i] = index.getDocumentFrequency(termNumber);
+		}
+		
+		// Leapfrog from the rarest term
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return Integer.compare(documentFrequencies[first], documentFrequencies[second]);
+			}
+		});
+		
+		int[][] positions = new int[n][16];
+		int[] sizes = new int[n];
+		
+		int[] documents = new int[16];
+		int[] frequencies = new int[16];
+		int size = 0;
+		
+		int target = cursors[order[0]].document();
+		
+		while (target != PostingsCursor.NO_MORE_DOCUMENTS) {
+			
+			// Move every cursor to the target, or restart from a later document
+			boolean aligned = true;
+			for (int i : order) {
+				cursors[i].advance(target);
+				
+				if (cursors[i].document() != target) {
+					target = cursors[i].document();
+					aligned = false;
+					break;
+				}
+			}
+			
+			if (!aligned) {
+				continue;
+			}
+			
+			// Decode positions only where all terms occur
+			for (int i = 0; i < n; i++) {
+				sizes[i] = cursors[i].frequency();
+				if (positions[i].length < sizes[i]) {
+					positions[i] = new int[Math.max(sizes[i], 2 * positions[i].length)];
+				}
+				cursors[i].readPositions(positions[i]);
+			}
+			
+			int matches = window == 0 ? countPhrases(positions, sizes)
+					: countWindows(positions, sizes, window);
+			
+			if (matches > 0) {
+				if (size == documents.length) {
+					documents = Arrays.copyOf(documents, 2 * size);
+					frequencies = Arrays.copyOf(frequencies, 2 * size);
+				}
+				documents[size] = target;
+				frequencies[size] = matches;
+				size++;
+			}
+			
+			target++;
+		}
+		
+		return new Postings(documents, frequencies, size);
+	}
+	
+	/**
+	 * Count the positions where the terms follow each other in order
+	 * 
+	 * @param positions Positions of each term of the phrase in increasing order
+	 * @param sizes Number of positions of each term
+	 * @return The number of matches
+	 */
+	static int countPhrases(int[][] positions, int[] sizes) {
+		int[] pointers = new int[positions.length];
+		int count = 0;
+		
+		// Position of the first term of a candidate match
+		int start = positions[0][0];
+		
+		candidates:
+		while (true) {
+			for (int i = 0; i < positions.length; i++) {
+				pointers[i] = gallop(positions[i], pointers[i], sizes[i], start + i);
+				if (pointers[i] == sizes[i]) {
+					return count;
+				}
+				
+				// Term i is not where the candidate needs it, move the candidate
+				if (positions[i][pointers[i]] > start + i) {
+					start = positions[i][pointers[i]] - i;
+					continue candidates;
+				}
+			}
+			
+			count++;
+			start++;
+		}
+	}
+	
+	/**
+	 * Count the windows of the given number of positions holding all of the
+	 * terms, not counting windows which share positions
+	 * 
+	 * @param positions Positions of each distinct term in increasing order
+	 * @param sizes Number of positions of each term
+	 * @param window The number of consecutive positions
+	 * @return The number of matches
+	 */
+	static int countWindows(int[][] positions, int[] sizes, int window) {
+		int[] pointers = new int[positions.length];
+		int count = 0;
+		
+		while (true) {
+			int first = 0;
+			int last = Integer.MIN_VALUE;
+			
+			for (int i = 0; i < positions.length; i++) {
+				int position = positions[i][pointers[i]];
+				if (position < positions[first][pointers[first]]) {
+					first = i;
+				}
+				last = Math.max(last, position);
+			}
+			
+			if (last - positions[first][pointers[first]] < window) {
+				
+				// Continue after the match
+				count++;
+				for (int i = 0; i < positions.length; i++) {
+					pointers[i] = gallop(positions[i], pointers[i], sizes[i], last + 1);
+					if (pointers[i] == sizes[i]) {
+						return count;
+					}
+				}
+				
+			} else {
+				
+				// The first term is too far from the last one to share a window
+				pointers[first] = gallop(positions[first], pointers[first], sizes[first],
+						last - window + 1);
+				if (pointers[first] == sizes[first]) {
+					return count;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Find the first value not smaller than the target by galloping ahead
+	 * and then binary searching
+	 * 
+	 * @param values Values in increasing order
+	 * @param from Position to start from
+	 * @param size Number of values
+	 * @param target The value to look for
+	 * @return The position of the first value from the start not smaller
+	 *         than the target, or size if there is none
+	 */
+	static int gallop(int[] values, int from, int size, int target) {
+		if (from >= size || values[from] >= target) {
+			return from;
+		}
+		
+		int step = 1;
+		int low = from;
+		int high = from + 1;
+		
+		while (high < size && values[high] < target) {
+			low = high;
+			step <<= 1;
+			high = from + step;
+		}
+		
+		high = Math.min(high, size);
+		
+		// values[low] < target and values[high] >= target or high == size
+		while (low + 1 < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] < target) {
+				low = middle;
+			} else {
+				high = middle;
+			}
+		}
+		
+		return high;
+	}
+	
+}
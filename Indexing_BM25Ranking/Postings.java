@@ -0,0 +1,279 @@
+import java.util.Arrays;
+
+/**
+ * Postings list of a single term stored as parallel primitive arrays:
+ * dense document numbers in increasing order and their term frequencies,
+ * optionally with skip data of each block of BLOCK_SIZE postings and with
+ * the positions of the term in each document
+ * 
+ * @author Adib
+ */
+public class Postings {
+	
+	// Number of postings per block of skip data
+	public static final int BLOCK_SIZE = 128;
+	
+	private final int[] documents;
+	private final int[] frequencies;
+	private final int size;
+	
+	/*
+	 * Skip data of each block: last document, highest term frequency and
+	 * shortest document length, or null if not computed
+	 */
+	private final int[] blockLastDocuments;
+	private final int[] blockMaxFrequencies;
+	private final int[] blockMinLengths;
+	
+	/*
+	 * Positions of all postings one after the other, and the start of the
+	 * positions of each posting, or null without positions
+	 */
+	private final int[] positions;
+	private final int[] positionOffsets;
+	
+	/**
+	 * Wrap the given parallel arrays as a postings list
+	 * 
+	 * @param documents Dense document numbers in increasing order
+	 * @param frequencies Term frequency of each document
+	 * @param size The number of valid entries in the arrays
+	 */
+	public Postings(int[] documents, int[] frequencies, int size) {
+		this.documents = documents;
+		this.frequencies = frequencies;
+		this.size = size;
+		blockLastDocuments = null;
+		blockMaxFrequencies = null;
+		blockMinLengths = null;
+		positions = null;
+		positionOffsets = null;
+	}
+	
+	/**
+	 * Wrap the given parallel arrays as a postings list with skip data
+	 * 
+	 * @param documents Dense document numbers in increasing order
+	 * @param frequencies Term frequency of each document
+	 * @param size The number of valid entries in the arrays
+	 * @param documentLengths Length of each dense document number
+	 */
+	public Postings(int[] documents, int[] frequencies, int size, int[] documentLengths) {
+		this.documents = documents;
+		this.frequencies = frequencies;
+		this.size = size;
+		
+		int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		blockLastDocuments = new int[blocks];
+		blockMaxFrequencies = new int[blocks];
+		blockMinLengths = new int[blocks];
+		
+		for (int block = 0; block < blocks; block++) {
+			int end = Math.min(size, (block + 1) * BLOCK_SIZE);
+			int maxFrequency = 0;
+			int minLength = Integer.MAX_VALUE;
+			
+			for (int i = block * BLOCK_SIZE; i < end; i++) {
+				maxFrequency = Math.max(maxFrequency, frequencies[i]);
+				minLength = Math.min(minLength, documentLengths[documents[i]]);
+			}
+			
+			blockLastDocuments[block] = documents[end - 1];
+			blockMaxFrequencies[block] = maxFrequency;
+			blockMinLengths[block] = minLength;
+		}
+		
+		positions = null;
+		positionOffsets = null;
+	}
+	
+	/**
+	 * Copy of the given postings list with positions
+	 */
+	private Postings(Postings other, int[] positions) {
+		documents = other.documents;
+		frequencies = other.frequencies;
+		size = other.size;
+		blockLastDocuments = other.blockLastDocuments;
+		blockMaxFrequencies = other.blockMaxFrequencies;
+		blockMinLengths = other.blockMinLengths;
+		
+		this.positions = positions;
+		positionOffsets = new int[size + 1];
+		for (int i = 0; i < size; i++) {
+			positionOffsets[i + 1] = positionOffsets[i] + frequencies[i];
+		}
+	}
+	
+	/**
+	 * Return the same postings with the positions of the term in each document
+	 * 
+	 * @param positions Term frequency positions of each posting in turn, each
+	 *        in increasing order
+	 * @return The postings with positions
+	 */
+	public Postings withPositions(int[] positions) {
+		return new Postings(this, positions);
+	}
+	
+	public int[] getDocuments() {
+		return documents;
+	}
+	
+	public int[] getFrequencies() {
+		return frequencies;
+	}
+	
+	/**
+	 * Return the number of postings i.e. the document frequency of the term
+	 * 
+	 * @return The number of postings
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Return a cursor at the first posting. Without skip data all postings
+	 * form one block with unbounded term frequency.
+	 * 
+	 * @return The cursor
+	 */
+	public PostingsCursor cursor() {
+		return new Cursor();
+	}
+	
+	/**
+	 * Compute the impact pairs of a postings list i.e. the
+	 * (term frequency, document length) pairs not dominated by any other
+	 * posting with a higher or equal term frequency and shorter or equal document
+	 * 
+	 * @param documents Dense document numbers
+	 * @param frequencies Term frequency of each document
+	 * @param size The number of postings
+	 * @param documentLengths Length of each dense document number
+	 * @return Flattened (term frequency, document length) pairs, highest term frequency first
+	 */
+	public static int[] computeImpacts(int[] documents, int[] frequencies, int size,
+			int[] documentLengths) {
+		
+		// Sort by decreasing term frequency, then increasing document length
+		long[] packed = new long[size];
+		for (int i = 0; i < size; i++) {
+			packed[i] = ((long) (Integer.MAX_VALUE - frequencies[i]) << 32)
+					| documentLengths[documents[i]];
+		}
+		Arrays.sort(packed);
+		
+		int[] impacts = new int[2 * size];
+		int count = 0;
+		int shortest = Integer.MAX_VALUE;
+		
+		// Keep a pair only if its document is shorter than all with higher frequency
+		for (long pair : packed) {
+			int length = (int) pair;
+			if (length < shortest) {
+				impacts[count++] = Integer.MAX_VALUE - (int) (pair >>> 32);
+				impacts[count++] = length;
+				shortest = length;
+			}
+		}
+		
+		return Arrays.copyOf(impacts, count);
+	}
+	
+	/**
+	 * Cursor over the arrays, galloping ahead and then binary searching
+	 */
+	private class Cursor implements PostingsCursor {
+		
+		private int position;
+		
+		// Block found by shallowAdvance
+		private int block;
+		
+		@Override
+		public int document() {
+			return position < size ? documents[position] : NO_MORE_DOCUMENTS;
+		}
+		
+		@Override
+		public int frequency() {
+			return frequencies[position];
+		}
+		
+		@Override
+		public void readPositions(int[] buffer) {
+			if (positions == null) {
+				throw new UnsupportedOperationException("Postings have no positions");
+			}
+			
+			System.arraycopy(positions, positionOffsets[position], buffer, 0, frequencies[position]);
+		}
+		
+		@Override
+		public void advance(int target) {
+			if (position >= size || documents[position] >= target) {
+				return;
+			}
+			
+			int step = 1;
+			int low = position;
+			int high = position + 1;
+			
+			while (high < size && documents[high] < target) {
+				low = high;
+				step <<= 1;
+				high = position + step;
+			}
+			
+			high = Math.min(high, size);
+			
+			// documents[low] < target and documents[high] >= target or high == size
+			while (low + 1 < high) {
+				int middle = (low + high) >>> 1;
+				if (documents[middle] < target) {
+					low = middle;
+				} else {
+					high = middle;
+				}
+			}
+			
+			position = high;
+		}
+		
+		@Override
+		public boolean shallowAdvance(int target) {
+			if (size == 0 || documents[size - 1] < target) {
+				return false;
+			}
+			
+			if (blockLastDocuments == null) {
+				return true;
+			}
+			
+			block = Math.max(block, Math.min(position, size - 1) / BLOCK_SIZE);
+			while (blockLastDocuments[block] < target) {
+				block++;
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public int blockLastDocument() {
+			return blockLastDocuments == null ? documents[size - 1] : blockLastDocuments[block];
+		}
+		
+		@Override
+		public int blockMaxFrequency() {
+			return blockMaxFrequencies == null ? Integer.MAX_VALUE : blockMaxFrequencies[block];
+		}
+		
+		@Override
+		public int blockMinLength() {
+			return blockMinLengths == null ? 0 : blockMinLengths[block];
+		}
+	}
+	
+}
@@ -0,0 +1,74 @@
+/**
+ * Position in the postings of a term, moving by increasing document number.
+ * Postings are grouped in blocks whose skip data (last document, highest
+ * term frequency and shortest document) can be read without decoding them,
+ * so whole blocks can be skipped. Positions of a posting are decoded only
+ * when they are read.
+ * 
+ * @author Adib
+ */
+public interface PostingsCursor {
+	
+	// Document of a cursor past its last posting
+	int NO_MORE_DOCUMENTS = Integer.MAX_VALUE;
+	
+	/**
+	 * Return the document of the current posting
+	 * 
+	 * @return The dense document number, or NO_MORE_DOCUMENTS at the end
+	 */
+	int document();
+	
+	/**
+	 * Return the term frequency of the current posting
+	 * 
+	 * @return The term frequency
+	 */
+	int frequency();
+	
+	/**
+	 * Read the positions of the term in the document of the current posting.
+	 * Only supported on an index with positions.
+	 * 
+	 * @param positions Filled with frequency() positions in increasing order
+	 */
+	void readPositions(int[] positions);
+	
+	/**
+	 * Move to the first posting whose document is at least the target
+	 * 
+	 * @param target The dense document number to move to
+	 */
+	void advance(int target);
+	
+	/**
+	 * Move the skip data, but not the postings, to the block holding the
+	 * first posting whose document is at least the target
+	 * 
+	 * @param target The dense document number
+	 * @return true iff there is such a block. False, otherwise
+	 */
+	boolean shallowAdvance(int target);
+	
+	/**
+	 * Return the last document of the block found by shallowAdvance
+	 * 
+	 * @return The dense document number
+	 */
+	int blockLastDocument();
+	
+	/**
+	 * Return the highest term frequency in the block found by shallowAdvance
+	 * 
+	 * @return The term frequency
+	 */
+	int blockMaxFrequency();
+	
+	/**
+	 * Return the shortest document length in the block found by shallowAdvance
+	 * 
+	 * @return The document length
+	 */
+	int blockMinLength();
+	
+}
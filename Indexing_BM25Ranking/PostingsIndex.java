@@ -0,0 +1,148 @@
+import java.util.Iterator;
+
+
+/**
+ * Read-only inverted index addressed by dense document numbers and term numbers.
+ * Document numbers run from 0 to the max document - 1 in increasing order of
+ * document id within each segment of the index, and term numbers run from 0
+ * to the number of terms - 1 in increasing order of term, so the terms
+ * starting with a prefix or falling in a range have consecutive term numbers.
+ * 
+ * @author Adib
+ */
+public interface PostingsIndex {
+	
+	/**
+	 * Return the number of documents in the index, not counting deleted documents
+	 * 
+	 * @return The number of documents
+	 */
+	int getNumberOfDocuments();
+	
+	/**
+	 * Return one more than the highest document number, counting deleted documents
+	 * 
+	 * @return The number of document numbers in use
+	 */
+	int getMaxDocument();
+	
+	/**
+	 * Return the sum of the lengths of all documents, not counting deleted documents
+	 * 
+	 * @return The total number of tokens in the corpus
+	 */
+	long getTotalLength();
+	
+	/**
+	 * Return the document id of the given document number
+	 * 
+	 * @param document The dense document number
+	 * @return The document id as found in the corpus
+	 */
+	int getDocumentId(int document);
+	
+	/**
+	 * Return the number of tokens in the given document number
+	 * 
+	 * @param document The dense document number
+	 * @return The document length
+	 */
+	int getDocumentLength(int document);
+	
+	/**
+	 * Return the number of term numbers in use
+	 * 
+	 * @return The number of terms
+	 */
+	int getNumberOfTerms();
+	
+	/**
+	 * Return the term of the given term number
+	 * 
+	 * @param termNumber The term number
+	 * @return The term
+	 */
+	String getTerm(int termNumber);
+	
+	/**
+	 * Return the terms from the given term number to the last one in order,
+	 * decoded one after the other rather than looked up one by one
+	 * 
+	 * @param termNumber The term number of the first term
+	 * @return Iterator over the terms from the term number on
+	 */
+	Iterator<String> getTerms(int termNumber);
+	
+	/**
+	 * Look up the term number of the given term
+	 * 
+	 * @param term The term to look up
+	 * @return The term number, or -1 if the term is not in the index
+	 */
+	int findTerm(String term);
+	
+	/**
+	 * Find the first term which is not smaller than the given term
+	 * 
+	 * @param term The term to look up, which need not be in the index
+	 * @return The term number, or the number of terms if all terms are smaller
+	 */
+	int findFirstTerm(String term);
+	
+	/**
+	 * Return the number of documents containing the given term number,
+	 * not counting deleted documents
+	 * 
+	 * @param termNumber The term number
+	 * @return The document frequency
+	 */
+	int getDocumentFrequency(int termNumber);
+	
+	/**
+	 * Return the postings of the given term number
+	 * 
+	 * @param termNumber The term number
+	 * @return The postings sorted by document number, without deleted documents
+	 */
+	Postings getPostings(int termNumber);
+	
+	/**
+	 * Return a cursor at the first posting of the given term number, which
+	 * decodes postings only as far as it is moved
+	 * 
+	 * @param termNumber The term number
+	 * @return The cursor over the postings without deleted documents
+	 */
+	PostingsCursor getCursor(int termNumber);
+	
+	/**
+	 * Return the impacts of the given term number as pairs of
+	 * (term frequency, document length) flattened into one array.
+	 * No posting of the term has both a higher term frequency and a shorter
+	 * document than all of the pairs, so the largest score any posting can
+	 * get under a ranking function that grows with term frequency and
+	 * shrinks with document length is reached at one of the pairs.
+	 * 
+	 * @param termNumber The term number
+	 * @return The impact pairs, highest term frequency first
+	 */
+	int[] getImpacts(int termNumber);
+	
+	/**
+	 * Check whether the index keeps the positions of the terms in each
+	 * document, which cursors then read with readPositions
+	 * 
+	 * @return true iff the index has positions. False, otherwise
+	 */
+	boolean hasPositions();
+	
+	/**
+	 * Return a view of the index that stays the same while it is used, even
+	 * if documents are added or deleted meanwhile. An index that never
+	 * changes returns itself.
+	 * 
+	 * @return The unchanging view of the index
+	 */
+	PostingsIndex snapshot();
+	
+}
@@ -1,11 +1,15 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 
 
@@ -24,20 +28,60 @@ public class Printer {
 	 */
 	public static void printIndex(String outputFile,
 			Map<String, Map<Integer, Integer>> invertedIndex) {
+		printIndex(outputFile, invertedIndex, false);
+	}
+	
+	/**
+	 * Print tokens along with the document number and term frequency
+	 * that contains it to the given file
+	 * 
+	 * @param outputFile The name of the file to write to
+	 * @param invertedIndex Map from Token to a map from document id to term frequency
+	 * @param sorted Whether to print tokens in sorted order and documents by increasing id
+	 */
+	public static void printIndex(String outputFile,
+			Map<String, Map<Integer, Integer>> invertedIndex, boolean sorted) {
 		
 		try (
-			PrintWriter outputStream = new PrintWriter(new File(outputFile));
+			IndexWriter outputStream = new IndexWriter(outputFile);
 		) {
 			
-			for (Map.Entry<String, Map<Integer, Integer>> entry : invertedIndex.entrySet()) {
-				outputStream.print(entry.getKey() + " ");
+			if (!sorted) {
 				
-				for (Map.Entry<Integer, Integer> documentEntry : entry.getValue().entrySet()) {
-					outputStream.print("(" + documentEntry.getKey() + ","
-							+ documentEntry.getValue() + ") ");
+				for (Map.Entry<String, Map<Integer, Integer>> entry : invertedIndex.entrySet()) {
+					outputStream.startTerm(entry.getKey());
+					
+					for (Map.Entry<Integer, Integer> documentEntry : entry.getValue().entrySet()) {
+						outputStream.addPosting(documentEntry.getKey(), documentEntry.getValue());
+					}
+					
+					outputStream.endTerm();
 				}
 				
-				outputStream.println();
+				return;
+			}
+			
+			String[] terms = invertedIndex.keySet().toArray(new String[invertedIndex.size()]);
+			Arrays.sort(terms);
+			
+			for (String term : terms) {
+				Map<Integer, Integer> documentMap = invertedIndex.get(term);
+				int[] documents = new int[documentMap.size()];
+				int[] frequencies = new int[documentMap.size()];
+				int count = 0;
+				
+				for (Map.Entry<Integer, Integer> documentEntry : documentMap.entrySet()) {
+					documents[count] = documentEntry.getKey();
+					frequencies[count] = documentEntry.getValue();
+					count++;
+				}
+				ArrayIndex.sortPostings(documents, frequencies, count);
+				
+				outputStream.startTerm(term);
+				for (int i = 0; i < count; i++) {
+					outputStream.addPosting(documents[i], frequencies[i]);
+				}
+				outputStream.endTerm();
 			}
 			
 		} catch (IOException exception) {
@@ -49,59 +93,286 @@ public class Printer {
 	}
 	
 	/**
-	 * Print top documents along with its score values to the given file
-	 * and standard output sorted by decreasing order of score
-	 * Format: query_id Q0 doc_id rank BM25_score system_name
+	 * Print the inverted index to the given file in the binary index format
+	 * described in {@link BinaryIndex}
 	 * 
 	 * @param outputFile The name of the file to write to
-	 * @param score Map from document id to its score
-	 * @param top The number of top documents to print
-	 * @param queryId The id of the query
+	 * @param invertedIndex Map from Token to a map from document id to term frequency
 	 */
-	public static void printSortedScore(String outputFile,
-			Map<Integer, Double> score, int top, int queryId) {
+	public static void printBinaryIndex(String outputFile,
+			Map<String, Map<Integer, Integer>> invertedIndex) {
+		printBinaryIndex(outputFile, invertedIndex, null);
+	}
+	
+	/**
+	 * Print the inverted index with the positions of the terms in each
+	 * document to the given file in the binary index format
+	 * 
+	 * @param outputFile The name of the file to write to
+	 * @param invertedIndex Map from Token to a map from document id to term frequency
+	 * @param corpusFile The corpus the index was built from, or null to leave out positions
+	 */
+	public static void printBinaryIndex(String outputFile,
+			Map<String, Map<Integer, Integer>> invertedIndex, String corpusFile) {
 		
-		List<Map.Entry<Integer, Double>> listScores = 
-				new ArrayList<Map.Entry<Integer, Double>>(score.entrySet());
+		// Document lengths are the sum of term frequencies in each document
+		ArrayIndex index = new ArrayIndex();
+		index.loadIndex(invertedIndex, null);
 		
-		// Sort according to decreasing order of scores
-		Collections.sort(listScores, new Comparator<Map.Entry<Integer, Double>>() {
-			@Override
-			public int compare(Map.Entry<Integer, Double> o1, 
-					Map.Entry<Integer, Double> o2) {
+		if (corpusFile != null) {
+			index.loadPositions(corpusFile);
+		}
+		
+		printBinaryIndex(outputFile, index);
+	}
+	
+	/**
+	 * Print the index to the given file in the binary index format
+	 * described in {@link BinaryIndex}
+	 * 
+	 * @param outputFile The name of the file to write to
+	 * @param index An index whose document numbers are in increasing order of document id
+	 */
+	public static void printBinaryIndex(String outputFile, PostingsIndex index) {
+		
+		int numberOfDocuments = index.getMaxDocument();
+		boolean hasPositions = index.hasPositions();
+		
+		// Term numbers are already in sorted order of term
+		String[] terms = new String[index.getNumberOfTerms()];
+		Iterator<String> termIterator = index.getTerms(0);
+		for (int termNumber = 0; termNumber < terms.length; termNumber++) {
+			terms[termNumber] = termIterator.next();
+		}
+		
+		// Dictionary, postings and positions are streamed to temporary files next to the
+		// output, so that neither their size nor the heap limits the size of the index
+		File directory = new File(outputFile).getAbsoluteFile().getParentFile();
+		File dictionaryFile = null;
+		File postingsFile = null;
+		File positionsFile = null;
+		
+		try {
+			
+			dictionaryFile = File.createTempFile("dictionary", ".tmp", directory);
+			postingsFile = File.createTempFile("postings", ".tmp", directory);
+			positionsFile = File.createTempFile("positions", ".tmp", directory);
+			int[] termOffsets = new int[terms.length];
+			long dictionarySize;
+			long postingsSize;
+			
+			try (
+				CountingOutputStream dictionaryBytes = new CountingOutputStream(dictionaryFile);
+				CountingOutputStream postingsBytes = new CountingOutputStream(postingsFile);
+				CountingOutputStream positionsBytes = new CountingOutputStream(positionsFile);
+			) {
+				
+				DataOutputStream dictionary = new DataOutputStream(dictionaryBytes);
+				DataOutputStream postings = new DataOutputStream(postingsBytes);
+				DataOutputStream positions = new DataOutputStream(positionsBytes);
+				
+				// Blocks of the current term, written after its skip data
+				ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+				DataOutputStream block = new DataOutputStream(blockBytes);
+				int[] gaps = new int[Postings.BLOCK_SIZE];
+				int[] frequenciesMinusOne = new int[Postings.BLOCK_SIZE];
 				
-				double o1Value = o1.getValue();
-				double o2Value = o2.getValue(); 
+				// Positions of the current term, written after their block lengths
+				ByteArrayOutputStream positionBlockBytes = new ByteArrayOutputStream();
+				DataOutputStream positionBlock = new DataOutputStream(positionBlockBytes);
+				int[] termPositions = new int[16];
 				
-				if (o1Value > o2Value) {
-					return -1;
-				} else if (o1Value < o2Value) {
-					return 1;
-				} else {
-					return 0;
+				for (int termNumber = 0; termNumber < terms.length; termNumber++) {
+					Postings termPostings = index.getPostings(termNumber);
+					int[] documents = termPostings.getDocuments();
+					int[] frequencies = termPostings.getFrequencies();
+					int count = termPostings.size();
+					int[] impacts = index.getImpacts(termNumber);
+					long termPostingsStart = postingsBytes.getCount();
+					long termPositionsStart = positionsBytes.getCount();
+					
+					// Term offsets are ints relative to the dictionary
+					if (dictionaryBytes.getCount() > Integer.MAX_VALUE) {
+						throw new IOException("Dictionary of the binary index is over 2GB");
+					}
+					
+					termOffsets[termNumber] = (int) dictionaryBytes.getCount();
+					BinaryIndex.writeVarInt(dictionary, count);
+					BinaryIndex.writeVarLong(dictionary, termPostingsStart);
+					if (hasPositions) {
+						BinaryIndex.writeVarLong(dictionary, termPositionsStart);
+					}
+					BinaryIndex.writeVarInt(dictionary, impacts.length / 2);
+					for (int impact : impacts) {
+						BinaryIndex.writeVarInt(dictionary, impact);
+					}
+					
+					// Document numbers are delta encoded in blocks led by their skip data
+					blockBytes.reset();
+					int previous = 0;
+					int previousLast = 0;
+					
+					for (int start = 0; start < count; start += Postings.BLOCK_SIZE) {
+						int size = Math.min(Postings.BLOCK_SIZE, count - start);
+						int maxFrequency = 0;
+						int minLength = Integer.MAX_VALUE;
+						
+						for (int j = 0; j < size; j++) {
+							gaps[j] = documents[start + j] - previous;
+							previous = documents[start + j];
+							frequenciesMinusOne[j] = frequencies[start + j] - 1;
+							maxFrequency = Math.max(maxFrequency, frequencies[start + j]);
+							minLength = Math.min(minLength,
+									index.getDocumentLength(documents[start + j]));
+						}
+						
+						int blockStart = blockBytes.size();
+						PForDelta.encode(gaps, 0, size, block);
+						PForDelta.encode(frequenciesMinusOne, 0, size, block);
+						
+						// The length of the last block is not needed to find the blocks
+						BinaryIndex.writeVarInt(postings, previous - previousLast);
+						if (start + size < count) {
+							BinaryIndex.writeVarInt(postings, blockBytes.size() - blockStart);
+						}
+						BinaryIndex.writeVarInt(postings, maxFrequency);
+						BinaryIndex.writeVarInt(postings, minLength);
+						previousLast = previous;
+					}
+					
+					blockBytes.writeTo(postings);
+					
+					// Positions are delta encoded per posting in the same blocks
+					if (hasPositions) {
+						PostingsCursor cursor = index.getCursor(termNumber);
+						positionBlockBytes.reset();
+						
+						for (int start = 0; start < count; start += Postings.BLOCK_SIZE) {
+							int size = Math.min(Postings.BLOCK_SIZE, count - start);
+							int blockStart = positionBlockBytes.size();
+							
+							for (int j = 0; j < size; j++) {
+								int frequency = cursor.frequency();
+								if (termPositions.length < frequency) {
+									termPositions = new int[Math.max(frequency, 2 * termPositions.length)];
+								}
+								cursor.readPositions(termPositions);
+								
+								int previousPosition = 0;
+								for (int k = 0; k < frequency; k++) {
+									BinaryIndex.writeVarInt(positionBlock,
+											termPositions[k] - previousPosition);
+									previousPosition = termPositions[k];
+								}
+								
+								cursor.advance(cursor.document() + 1);
+							}
+							
+							if (start + size < count) {
+								BinaryIndex.writeVarInt(positions,
+										positionBlockBytes.size() - blockStart);
+							}
+						}
+						
+						positionBlockBytes.writeTo(positions);
+					}
+					
+					// The postings and positions of a term must lie within one mapped window
+					if (postingsBytes.getCount() - termPostingsStart > BinaryIndex.WINDOW_STEP
+							|| positionsBytes.getCount() - termPositionsStart > BinaryIndex.WINDOW_STEP) {
+						throw new IOException("Postings of term " + terms[termNumber] + " are over 1GB");
+					}
 				}
 				
+				dictionarySize = dictionaryBytes.getCount();
+				postingsSize = postingsBytes.getCount();
+			}
+			
+			ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+			TermDictionary.write(terms, new DataOutputStream(termBytes));
+			
+			long dictionaryOffset = BinaryIndex.HEADER_SIZE
+					+ 8L * numberOfDocuments + 4L * terms.length + termBytes.size();
+			long postingsOffset = dictionaryOffset + dictionarySize;
+			long positionsOffset = hasPositions ? postingsOffset + postingsSize : 0;
+			
+			// Tables and terms are read from the first mapped window
+			if (dictionaryOffset > Integer.MAX_VALUE) {
+				throw new IOException("Tables and terms of the binary index are over 2GB");
 			}
-		});
+			
+			try (
+				DataOutputStream outputStream = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(outputFile)));
+			) {
+				
+				// Header
+				outputStream.writeInt(BinaryIndex.MAGIC);
+				outputStream.writeInt(BinaryIndex.VERSION);
+				outputStream.writeInt(numberOfDocuments);
+				outputStream.writeInt(terms.length);
+				outputStream.writeLong(dictionaryOffset);
+				outputStream.writeLong(postingsOffset);
+				outputStream.writeLong(positionsOffset);
+				
+				// Document table
+				for (int document = 0; document < numberOfDocuments; document++) {
+					outputStream.writeInt(index.getDocumentId(document));
+					outputStream.writeInt(index.getDocumentLength(document));
+				}
+				
+				// Term offset table
+				for (int termOffset : termOffsets) {
+					outputStream.writeInt(termOffset);
+				}
+				
+				termBytes.writeTo(outputStream);
+				Files.copy(dictionaryFile.toPath(), outputStream);
+				Files.copy(postingsFile.toPath(), outputStream);
+				Files.copy(positionsFile.toPath(), outputStream);
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to write to output file");
+			exception.printStackTrace();
+			
+		} finally {
+			deleteFiles(dictionaryFile, postingsFile, positionsFile);
+		}
+	}
+	
+	/**
+	 * Delete the given files, skipping nulls
+	 */
+	private static void deleteFiles(File... files) {
+		for (File file : files) {
+			if (file != null) {
+				file.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Print top documents along with its score values to the given file
+	 * and standard output sorted by decreasing order of score, equal scores
+	 * sorted by increasing document id
+	 * Format: query_id Q0 doc_id rank BM25_score system_name
+	 * 
+	 * @param outputFile The name of the file to write to
+	 * @param score Map from document id to its score
+	 * @param top The number of top documents to print
+	 * @param queryId The id of the query
+	 */
+	public static void printSortedScore(String outputFile,
+			Map<Integer, Double> score, int top, int queryId) {
 		
 		// Print to File
 		try (
 			PrintWriter outputStream = new PrintWriter(new FileWriter(outputFile, true));
 		) {
 			
-			int len = listScores.size();
-			
-			for (int i = 0; i < top && i < len; i++) {
-				Map.Entry<Integer, Double> pageEntry = listScores.get(i);
-				String printString = queryId + " " + "Q0" + " " + 
-						pageEntry.getKey() + " " + (i + 1) +
-						" " + pageEntry.getValue() + " " + "system_name";
-				outputStream.println(printString);
-				System.out.println(printString);
-			}
-			
-			outputStream.println();
-			System.out.println();
+			printSortedScore(outputStream, score, top, queryId);
 			
 		} catch (IOException e) {
 			
@@ -110,4 +381,91 @@ public class Printer {
 			
 		}
 	}
-}
+	
+	/**
+	 * Print top documents along with its score values to the given writer
+	 * and standard output sorted by decreasing order of score, equal scores
+	 * sorted by increasing document id
+	 * Format: query_id Q0 doc_id rank BM25_score system_name
+	 * 
+	 * @param outputStream The writer to print to, left open
+	 * @param score Map from document id to its score
+	 * @param top The number of top documents to print
+	 * @param queryId The id of the query
+	 */
+	public static void printSortedScore(PrintWriter outputStream,
+			Map<Integer, Double> score, int top, int queryId) {
+		printSortedScore(outputStream, score, top, queryId, true);
+	}
+	
+	/**
+	 * Print top documents along with its score values to the given writer
+	 * sorted by decreasing order of score, equal scores sorted by increasing
+	 * document id, and optionally to standard output
+	 * Format: query_id Q0 doc_id rank BM25_score system_name
+	 * 
+	 * @param outputStream The writer to print to, left open
+	 * @param score Map from document id to its score
+	 * @param top The number of top documents to print
+	 * @param queryId The id of the query
+	 * @param echo Whether to print to standard output as well
+	 */
+	public static void printSortedScore(PrintWriter outputStream,
+			Map<Integer, Double> score, int top, int queryId, boolean echo) {
+		
+		// Select top documents by decreasing order of scores
+		TopK topDocuments = new TopK(Math.max(0, Math.min(top, score.size())));
+		for (Map.Entry<Integer, Double> entry : score.entrySet()) {
+			topDocuments.offer(entry.getKey(), entry.getValue());
+		}
+		
+		int[] documents = new int[topDocuments.size()];
+		double[] scores = new double[topDocuments.size()];
+		int len = topDocuments.drain(documents, scores);
+		
+		for (int i = 0; i < len; i++) {
+			String printString = queryId + " " + "Q0" + " " + 
+					documents[i] + " " + (i + 1) +
+					" " + scores[i] + " " + "system_name";
+			outputStream.println(printString);
+			if (echo) {
+				System.out.println(printString);
+			}
+		}
+		
+		outputStream.println();
+		if (echo) {
+			System.out.println();
+		}
+	}
+	
+	/**
+	 * Buffered file output stream counting the bytes written to it as a long,
+	 * unlike DataOutputStream whose count stops at 2GB
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		
+		private long count;
+		
+		CountingOutputStream(File file) throws IOException {
+			super(new BufferedOutputStream(new FileOutputStream(file)));
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int offset, int length) throws IOException {
+			out.write(b, offset, length);
+			count += length;
+		}
+		
+		long getCount() {
+			return count;
+		}
+	}
+	
+}
\ No newline at end of file
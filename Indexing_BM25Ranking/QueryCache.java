@@ -0,0 +1,288 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Bounded cache of top document results in front of BM25Algorithm.
+ * Queries are keyed on their terms with counts in sorted order and the
+ * number of top documents, so queries differing only in term order or case
+ * share an entry. Results are kept as primitive arrays and the cache is
+ * bounded by the estimated bytes of its entries, evicting the least recently
+ * or the least frequently used entries first. Entries are only returned for
+ * the version of the index and constants they were ranked on, and results
+ * cut short by the impact budget are not cached.
+ * 
+ * @author Adib
+ */
+public class QueryCache {
+	
+	/**
+	 * Order in which entries are evicted
+	 */
+	public enum Policy {
+		
+		// Least recently used first
+		LRU,
+		
+		// Least often hit first, least recently used among equals
+		LFU
+	}
+	
+	// Estimated heap bytes of an entry besides its key characters and results
+	private static final int ENTRY_OVERHEAD = 160;
+	
+	// Heap bytes of one cached result: an int and a double
+	private static final int RESULT_BYTES = 12;
+	
+	private final BM25Algorithm algorithm;
+	private final long maxBytes;
+	private final Policy policy;
+	
+	/*
+	 * Map from query key to its results, from least to most recently used
+	 */
+	private final LinkedHashMap<String, Entry> entries;
+	
+	/*
+	 * With LFU, map from hit count to the keys of the entries hit that often,
+	 * each from least to most recently used
+	 */
+	private final TreeMap<Long, LinkedHashSet<String>> hitBuckets;
+	
+	// Estimated heap bytes of all entries
+	private long bytes;
+	
+	// Version of the scoring tables the entries belong to
+	private long version;
+	
+	// Statistics
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+	
+	/**
+	 * Initialize a query cache
+	 * 
+	 * @param algorithm The BM25 algorithm ranking queries missing from the cache
+	 * @param maxBytes Maximum estimated heap bytes of cached results
+	 * @param policy Order in which entries are evicted
+	 */
+	public QueryCache(BM25Algorithm algorithm, long maxBytes, Policy policy) {
+		this.algorithm = algorithm;
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		hitBuckets = new TreeMap<Long, LinkedHashSet<String>>();
+		version = algorithm.getVersion();
+	}
+	
+	/**
+	 * Return the top documents of the query from the cache, ranking the query
+	 * with BM25 if it is not cached for the current version of the index
+	 * 
+	 * @param query The query on which to rank documents
+	 * @param top The number of top documents to return
+	 * @return Map from document id to its BM25 score, in decreasing order of score
+	 */
+	public Map<Integer, Double> runBM25Algorithm(String query, int top) {
+		String key = normalize(query, top);
+		long currentVersion = algorithm.getVersion();
+		QueryMetrics metrics = algorithm.getMetrics();
+		
+		synchronized (this) {
+			invalidate(currentVersion);
+			
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				hits++;
+				if (policy == Policy.LFU) {
+					removeFromBucket(key, entry.hits);
+					addToBucket(key, entry.hits + 1);
+				}
+				entry.hits++;
+				if (metrics != null) {
+					metrics.addCacheHit();
+				}
+				return entry.toMap();
+			}
+			
+			misses++;
+			if (metrics != null) {
+				metrics.addCacheMiss();
+			}
+		}
+		
+		Map<Integer, Double> documentRank = algorithm.runBM25Algorithm(query, top);
+		boolean truncated = algorithm.isTruncated();
+		
+		synchronized (this) {
+			invalidate(currentVersion);
+			
+			// Results ranked on an older version, or cut short by the impact budget
+			// and so depending on timing, are not kept. The version is read again
+			// as the mode or index may have changed while the query was ranked.
+			if (!truncated && currentVersion == version && algorithm.getVersion() == currentVersion
+					&& !entries.containsKey(key)) {
+				Entry entry = new Entry(documentRank);
+				long entryBytes = ENTRY_OVERHEAD + 2L * key.length()
+						+ (long) RESULT_BYTES * entry.documents.length;
+				
+				if (entryBytes <= maxBytes) {
+					entry.bytes = entryBytes;
+					entries.put(key, entry);
+					if (policy == Policy.LFU) {
+						addToBucket(key, 0);
+					}
+					bytes += entryBytes;
+					evict();
+				}
+			}
+		}
+		
+		return documentRank;
+	}
+	
+	/**
+	 * Key of a query: the number of top documents followed by each distinct
+	 * lower cased term with its count, in sorted order
+	 */
+	private static String normalize(String query, int top) {
+		Map<String, Integer> queryTermCount = BM25Algorithm.countQueryTerms(query);
+		String[] terms = queryTermCount.keySet().toArray(new String[queryTermCount.size()]);
+		Arrays.sort(terms);
+		
+		// Terms are prefixed with their length, as they may hold any character
+		StringBuilder key = new StringBuilder();
+		key.append(top);
+		for (String term : terms) {
+			key.append(' ').append(term.length()).append(':').append(term)
+					.append('*').append(queryTermCount.get(term));
+		}
+		
+		return key.toString();
+	}
+	
+	/**
+	 * Drop all entries if the index or constants changed since they were cached
+	 */
+	private void invalidate(long currentVersion) {
+		if (currentVersion > version) {
+			if (!entries.isEmpty()) {
+				invalidations++;
+			}
+			entries.clear();
+			hitBuckets.clear();
+			bytes = 0;
+			version = currentVersion;
+		}
+	}
+	
+	/**
+	 * Evict entries until the cache fits in its budget
+	 */
+	private void evict() {
+		while (bytes > maxBytes) {
+			String victim;
+			
+			// The least recently used entry among those hit least often
+			if (policy == Policy.LFU) {
+				Map.Entry<Long, LinkedHashSet<String>> lowest = hitBuckets.firstEntry();
+				victim = lowest.getValue().iterator().next();
+				removeFromBucket(victim, lowest.getKey());
+			} else {
+				victim = entries.keySet().iterator().next();
+			}
+			
+			bytes -= entries.remove(victim).bytes;
+			evictions++;
+		}
+	}
+	
+	/**
+	 * Add the key as the most recently used of the entries with the given hits
+	 */
+	private void addToBucket(String key, long hits) {
+		LinkedHashSet<String> bucket = hitBuckets.get(hits);
+		if (bucket == null) {
+			bucket = new LinkedHashSet<String>();
+			hitBuckets.put(hits, bucket);
+		}
+		bucket.add(key);
+	}
+	
+	/**
+	 * Remove the key from the entries with the given hits, dropping the bucket
+	 * once it is empty so that the first bucket is always the least hit
+	 */
+	private void removeFromBucket(String key, long hits) {
+		LinkedHashSet<String> bucket = hitBuckets.get(hits);
+		bucket.remove(key);
+		if (bucket.isEmpty()) {
+			hitBuckets.remove(hits);
+		}
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Results of a cached query as parallel arrays in decreasing order of score
+	 */
+	private static class Entry {
+		
+		final int[] documents;
+		final double[] scores;
+		long bytes;
+		long hits;
+		
+		Entry(Map<Integer, Double> documentRank) {
+			documents = new int[documentRank.size()];
+			scores = new double[documentRank.size()];
+			
+			int count = 0;
+			for (Map.Entry<Integer, Double> entry : documentRank.entrySet()) {
+				documents[count] = entry.getKey();
+				scores[count] = entry.getValue();
+				count++;
+			}
+		}
+		
+		/**
+		 * Return a new map of the results which the caller may change
+		 */
+		Map<Integer, Double> toMap() {
+			Map<Integer, Double> documentRank =
+					new LinkedHashMap<Integer, Double>(2 * documents.length);
+			for (int i = 0; i < documents.length; i++) {
+				documentRank.put(documents[i], scores[i]);
+			}
+			return documentRank;
+		}
+	}
+	
+}
@@ -0,0 +1,251 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Latency histograms of each stage of the query path and counters of the
+ * work done, shared by all threads ranking queries. Recording only takes a
+ * clock read and a few atomic adds, and nothing is recorded by a
+ * BM25Algorithm without metrics. Snapshots are written as text or JSON, on
+ * demand or periodically to a file.
+ * 
+ * @author Adib
+ */
+public class QueryMetrics {
+	
+	/**
+	 * Stages of a query
+	 */
+	public enum Stage {
+		
+		// Splitting the query into terms and looking them up in the index
+		PARSE,
+		
+		// Scoring postings, including matching phrases
+		SCORE,
+		
+		// Selecting and ordering the top documents
+		RANK,
+		
+		// Printing or serializing the results
+		OUTPUT
+	}
+	
+	// Percentiles reported in snapshots
+	private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+	
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+	
+	private final LongAdder queries = new LongAdder();
+	private final LongAdder postingsScored = new LongAdder();
+	private final LongAdder documentsScored = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	
+	private ScheduledExecutorService reporter;
+	
+	public QueryMetrics() {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+	
+	/**
+	 * Record the time a query spent in a stage
+	 * 
+	 * @param stage The stage
+	 * @param nanos The time in nanoseconds
+	 */
+	public void record(Stage stage, long nanos) {
+		histograms[stage.ordinal()].record(nanos);
+	}
+	
+	/**
+	 * Count a ranked query with the postings and documents it scored
+	 * 
+	 * @param postings The number of postings whose score was computed
+	 * @param documents The number of documents whose score was computed
+	 */
+	public void addQuery(long postings, long documents) {
+		queries.increment();
+		postingsScored.add(postings);
+		documentsScored.add(documents);
+	}
+	
+	public void addCacheHit() {
+		cacheHits.increment();
+	}
+	
+	public void addCacheMiss() {
+		cacheMisses.increment();
+	}
+	
+	public LatencyHistogram getHistogram(Stage stage) {
+		return histograms[stage.ordinal()];
+	}
+	
+	public long getQueries() {
+		return queries.sum();
+	}
+	
+	public long getPostingsScored() {
+		return postingsScored.sum();
+	}
+	
+	public long getDocumentsScored() {
+		return documentsScored.sum();
+	}
+	
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+	
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+	
+	/**
+	 * Write a snapshot of the metrics to a file every period, replacing the
+	 * previous snapshot, on a daemon thread
+	 * 
+	 * @param fileName The file to write to, as JSON if it ends with .json
+	 * @param periodSeconds Seconds between snapshots
+	 */
+	public synchronized void startReporting(final String fileName, long periodSeconds) {
+		stopReporting();
+		
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "query-metrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				writeSnapshot(fileName);
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Stop writing periodic snapshots
+	 */
+	public synchronized void stopReporting() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+	
+	/**
+	 * Write a snapshot of the metrics to a file
+	 * 
+	 * @param fileName The file to write to, as JSON if it ends with .json
+	 */
+	public void writeSnapshot(String fileName) {
+		String snapshot = fileName.endsWith(".json") ? toJson() : toText();
+		
+		try (
+			PrintWriter outputStream = new PrintWriter(new FileWriter(fileName));
+		) {
+			
+			outputStream.print(snapshot);
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to write to metrics file");
+			exception.printStackTrace();
+			
+		}
+	}
+	
+	/**
+	 * Return a snapshot of the metrics as text, latencies in microseconds
+	 * 
+	 * @return The snapshot
+	 */
+	public String toText() {
+		StringBuilder text = new StringBuilder();
+		
+		text.append(String.format(Locale.ROOT, "%-8s %10s %10s %10s %10s %10s %10s %10s%n",
+				"stage", "count", "mean_us", "p50_us", "p90_us", "p99_us", "p999_us", "max_us"));
+		
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = getHistogram(stage);
+			text.append(String.format(Locale.ROOT, "%-8s %10d %10.1f",
+					stage.name().toLowerCase(), histogram.getCount(), histogram.getMean() / 1000));
+			for (double percentile : PERCENTILES) {
+				text.append(String.format(Locale.ROOT, " %10.1f",
+						histogram.getPercentile(percentile) / 1000.0));
+			}
+			text.append(String.format(Locale.ROOT, " %10.1f%n", histogram.getMax() / 1000.0));
+		}
+		
+		text.append("queries ").append(getQueries()).append('\n');
+		text.append("postings_scored ").append(getPostingsScored()).append('\n');
+		text.append("documents_scored ").append(getDocumentsScored()).append('\n');
+		text.append("cache_hits ").append(getCacheHits()).append('\n');
+		text.append("cache_misses ").append(getCacheMisses()).append('\n');
+		
+		return text.toString();
+	}
+	
+	/**
+	 * Return a snapshot of the metrics as a JSON object, latencies in
+	 * microseconds
+	 * 
+	 * @return The snapshot
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\"stages\":{");
+		
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = getHistogram(stage);
+			
+			if (stage.ordinal() > 0) {
+				json.append(',');
+			}
+			json.append('"').append(stage.name().toLowerCase()).append("\":{");
+			json.append("\"count\":").append(histogram.getCount());
+			json.append(String.format(Locale.ROOT, ",\"mean_us\":%.3f", histogram.getMean() / 1000));
+			for (double percentile : PERCENTILES) {
+				json.append(",\"p").append(percentileName(percentile)).append("_us\":")
+						.append(String.format(Locale.ROOT, "%.3f", histogram.getPercentile(percentile) / 1000.0));
+			}
+			json.append(String.format(Locale.ROOT, ",\"max_us\":%.3f}", histogram.getMax() / 1000.0));
+		}
+		
+		json.append("},\"counters\":{");
+		json.append("\"queries\":").append(getQueries());
+		json.append(",\"postings_scored\":").append(getPostingsScored());
+		json.append(",\"documents_scored\":").append(getDocumentsScored());
+		json.append(",\"cache_hits\":").append(getCacheHits());
+		json.append(",\"cache_misses\":").append(getCacheMisses());
+		json.append("}}\n");
+		
+		return json.toString();
+	}
+	
+	/**
+	 * Digits of a percentile after "0.", e.g. 99 for 0.99 and 999 for 0.999
+	 */
+	private static String percentileName(double percentile) {
+		String digits = String.format(Locale.ROOT, "%.3f", percentile).substring(2);
+		while (digits.length() > 2 && digits.endsWith("0")) {
+			digits = digits.substring(0, digits.length() - 1);
+		}
+		return digits;
+	}
+	
+}
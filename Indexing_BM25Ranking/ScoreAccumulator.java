@@ -0,0 +1,117 @@
+import java.util.Arrays;
+
+
+/**
+ * Dense score accumulators for term-at-a-time ranking, reused from query to
+ * query. Scores are added by document number into an array sized to the
+ * corpus, and the documents touched by a query are listed as they are first
+ * added to, so that selecting the top documents and clearing the scores for
+ * the next query take time in the number of touched documents rather than
+ * in the size of the corpus. An accumulator is not thread-safe; each query
+ * borrows one of its own from a pool.
+ * 
+ * @author Adib
+ */
+public class ScoreAccumulator {
+	
+	private double[] scores = new double[0];
+	private boolean[] touched = new boolean[0];
+	
+	// Touched document numbers, in the order they were first added to
+	private int[] documents = new int[0];
+	private int size;
+	
+	/**
+	 * Make room for the documents of an index, keeping the accumulated scores
+	 * 
+	 * @param maxDocument One more than the largest document number
+	 */
+	public void ensureCapacity(int maxDocument) {
+		if (scores.length < maxDocument) {
+			int capacity = Math.max(maxDocument, scores.length + (scores.length >> 1));
+			scores = Arrays.copyOf(scores, capacity);
+			touched = Arrays.copyOf(touched, capacity);
+			documents = Arrays.copyOf(documents, capacity);
+		}
+	}
+	
+	/**
+	 * Add the scores of the postings of a term with the score kernel, and
+	 * list the documents touched for the first time
+	 * 
+	 * @param kernel The kernel computing and adding the scores
+	 * @param documentK Length normalization K of each document number
+	 * @param postingDocuments Document numbers of the postings, without repeats
+	 * @param frequencies Term frequencies of the postings
+	 * @param n The number of postings
+	 * @param weight Inverse document frequency times query weight of the term
+	 * @param k1Plus1 The BM25 constant k1 plus one
+	 */
+	public void addScores(ScoreKernel kernel, double[] documentK, int[] postingDocuments,
+			int[] frequencies, int n, double weight, double k1Plus1) {
+		
+		kernel.addScores(scores, documentK, postingDocuments, frequencies, n, weight, k1Plus1);
+		
+		for (int i = 0; i < n; i++) {
+			int document = postingDocuments[i];
+			if (!touched[document]) {
+				touched[document] = true;
+				documents[size++] = document;
+			}
+		}
+	}
+	
+	/**
+	 * Return the number of documents touched since the last clear
+	 * 
+	 * @return The number of touched documents
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Return a touched document number
+	 * 
+	 * @param i The position of the document in the touched list, below size()
+	 * @return The document number
+	 */
+	public int getDocument(int i) {
+		return documents[i];
+	}
+	
+	/**
+	 * Return the accumulated score of a document
+	 * 
+	 * @param document The document number
+	 * @return The score, 0 if it was not touched
+	 */
+	public double getScore(int document) {
+		return scores[document];
+	}
+	
+	/**
+	 * Offer every touched document and its score to a top selection
+	 * 
+	 * @param topDocuments The selection
+	 */
+	public void selectTop(TopK topDocuments) {
+		for (int i = 0; i < size; i++) {
+			int document = documents[i];
+			topDocuments.offer(document, scores[document]);
+		}
+	}
+	
+	/**
+	 * Reset the scores of the touched documents, ready for the next query
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			int document = documents[i];
+			scores[document] = 0;
+			touched[document] = false;
+		}
+		size = 0;
+	}
+	
+}
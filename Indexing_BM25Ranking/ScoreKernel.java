@@ -0,0 +1,72 @@
+/**
+ * Kernel adding the BM25 scores of the postings of a term to a dense array of
+ * score accumulators: for each posting (d, f) it adds
+ * weight * ((k1 + 1) * f / (K[d] + f)) to scores[d]. This class is the scalar
+ * kernel. When the jdk.incubator.vector module is loaded (java --add-modules
+ * jdk.incubator.vector) and VectorScoreKernel is compiled, getInstance returns
+ * the SIMD kernel instead, which computes the same operations in the same
+ * order and so gives exactly the same scores.
+ * 
+ * @author Adib
+ */
+public class ScoreKernel {
+	
+	// Name of the SIMD kernel, loaded by name so that it is only linked when
+	// the vector module is present
+	private static final String VECTOR_KERNEL = "VectorScoreKernel";
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+	
+	private static final ScoreKernel INSTANCE = create();
+	
+	/**
+	 * Return the fastest kernel available in this JVM
+	 * 
+	 * @return The kernel
+	 */
+	public static ScoreKernel getInstance() {
+		return INSTANCE;
+	}
+	
+	private static ScoreKernel create() {
+		if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+			try {
+				return (ScoreKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError | RuntimeException exception) {
+				// Not compiled in or not supported by the hardware
+			}
+		}
+		
+		return new ScoreKernel();
+	}
+	
+	/**
+	 * Add the scores of postings to the score accumulators of their documents
+	 * 
+	 * @param scores Score accumulator of each document number
+	 * @param documentK Length normalization K of each document number
+	 * @param documents Document numbers of the postings, without repeats
+	 * @param frequencies Term frequencies of the postings
+	 * @param n The number of postings
+	 * @param weight Inverse document frequency times query weight of the term
+	 * @param k1Plus1 The BM25 constant k1 plus one
+	 */
+	public void addScores(double[] scores, double[] documentK, int[] documents, int[] frequencies,
+			int n, double weight, double k1Plus1) {
+		for (int i = 0; i < n; i++) {
+			int document = documents[i];
+			int f = frequencies[i];
+			
+			scores[document] += weight * (k1Plus1 * f / (documentK[document] + f));
+		}
+	}
+	
+	/**
+	 * Return the name of the kernel
+	 * 
+	 * @return "scalar" or the vector shape of the SIMD kernel
+	 */
+	public String getName() {
+		return "scalar";
+	}
+	
+}
@@ -0,0 +1,1148 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Index that takes added and deleted documents without a full rebuild.
+ * The index is a directory of binary index segments: added documents are
+ * indexed into a new small segment, and deleted documents are only marked
+ * in a tombstone bitset. A document added again replaces its older version.
+ * Once there are too many segments or too many deleted documents, the
+ * segments are merged into one on a background thread, dropping the deleted
+ * documents.
+ * 
+ * Every change publishes a new immutable snapshot of the segments, so a query
+ * which works on one snapshot sees a consistent index, with the corpus size,
+ * total length and document frequencies of the documents which are not
+ * deleted. Document frequencies are kept per segment and only the terms of
+ * newly deleted documents are counted down, from the terms of each document
+ * of a segment listed the first time one of its documents is deleted.
+ * 
+ * Directory layout:
+ *   segment-<n>.bin   Segments in the binary index format of {@link BinaryIndex}
+ *   segments.txt      One line per segment in document number order:
+ *                     segment file name followed by its deleted document ids
+ * 
+ * @author Adib
+ */
+public class SegmentedIndex implements PostingsIndex, Closeable {
+	
+	// Number of segments above which they are merged
+	private static final int MAX_SEGMENTS = 8;
+	
+	private static final String MANIFEST = "segments.txt";
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".bin";
+	
+	// Directory holding the segments and the manifest
+	private File directory;
+	
+	// Segments of the index as seen by new queries
+	private volatile Segments current;
+	
+	// Number of the next segment file
+	private int nextSegment;
+	
+	// Whether a merge is queued or running
+	private boolean merging;
+	
+	// Thread merging segments in the background
+	private final ExecutorService merger;
+	
+	public SegmentedIndex() {
+		current = new Segments(new PostingsIndex[0], new String[0], new BitSet(), null);
+		merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "segment-merger");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Open the segmented index in the given directory, which is created if it
+	 * does not exist yet
+	 * 
+	 * @param directoryName The directory holding the index
+	 */
+	public synchronized void loadIndex(String directoryName) {
+		directory = new File(directoryName);
+		directory.mkdirs();
+		
+		File manifest = new File(directory, MANIFEST);
+		if (!manifest.exists()) {
+			return;
+		}
+		
+		List<PostingsIndex> segments = new ArrayList<PostingsIndex>();
+		List<String> names = new ArrayList<String>();
+		List<int[]> deletedIds = new ArrayList<int[]>();
+		
+		try (
+			FileReader fileReader = new FileReader(manifest);
+			BufferedReader reader = new BufferedReader(fileReader);
+		) {
+			
+			String currentLine;
+			
+			while ((currentLine = reader.readLine()) != null) {
+				
+				String[] tokens = currentLine.trim().split("\\s+");
+				if (tokens[0].isEmpty()) {
+					continue;
+				}
+				
+				BinaryIndex segment = new BinaryIndex();
+				segment.loadIndex(new File(directory, tokens[0]).getPath());
+				segments.add(segment);
+				names.add(tokens[0]);
+				
+				int[] ids = new int[tokens.length - 1];
+				for (int i = 1; i < tokens.length; i++) {
+					ids[i - 1] = Integer.parseInt(tokens[i]);
+				}
+				deletedIds.add(ids);
+				
+				int number = Integer.parseInt(tokens[0].substring(SEGMENT_PREFIX.length(),
+						tokens[0].length() - SEGMENT_SUFFIX.length()));
+				nextSegment = Math.max(nextSegment, number + 1);
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to read from input file");
+			exception.printStackTrace();
+			
+		}
+		
+		Segments loaded = new Segments(segments.toArray(new PostingsIndex[segments.size()]),
+				names.toArray(new String[names.size()]), new BitSet(), null);
+		BitSet deleted = new BitSet();
+		
+		for (int i = 0; i < deletedIds.size(); i++) {
+			for (int documentId : deletedIds.get(i)) {
+				int document = findDocument(loaded.segments[i], documentId);
+				if (document >= 0) {
+					deleted.set(loaded.bases[i] + document);
+				}
+			}
+		}
+		
+		current = loaded.withDeleted(deleted);
+	}
+	
+	/**
+	 * Index the documents of the given corpus into a new segment. Documents
+	 * already in the index are replaced by their new version.
+	 * 
+	 * @param fileName The filename to read the corpus from
+	 * @param threads The number of threads indexing the corpus
+	 */
+	public synchronized void addDocuments(String fileName, int threads) {
+		Index corpusIndex = new Index();
+		corpusIndex.buildIndex(fileName, threads);
+		
+		ArrayIndex segment = new ArrayIndex();
+		segment.loadIndex(corpusIndex.getInvertedIndex(), null);
+		
+		if (segment.getMaxDocument() == 0) {
+			return;
+		}
+		
+		String name = writeSegment(segment);
+		
+		Segments previous = current;
+		BitSet deleted = (BitSet) previous.deleted.clone();
+		
+		// Older versions of the added documents are deleted
+		for (int document = 0; document < segment.getMaxDocument(); document++) {
+			int oldDocument = previous.findLiveDocument(segment.getDocumentId(document));
+			if (oldDocument >= 0) {
+				deleted.set(oldDocument);
+			}
+		}
+		
+		PostingsIndex[] segments = Arrays.copyOf(previous.segments, previous.segments.length + 1);
+		String[] names = Arrays.copyOf(previous.names, previous.names.length + 1);
+		segments[segments.length - 1] = loadSegment(name);
+		names[names.length - 1] = name;
+		
+		publish(new Segments(segments, names, deleted, previous));
+	}
+	
+	/**
+	 * Delete the documents with the given ids. Ids not in the index are ignored.
+	 * 
+	 * @param documentIds The document ids as found in the corpus
+	 */
+	public synchronized void deleteDocuments(int[] documentIds) {
+		Segments previous = current;
+		BitSet deleted = (BitSet) previous.deleted.clone();
+		
+		for (int documentId : documentIds) {
+			int document = previous.findLiveDocument(documentId);
+			if (document >= 0) {
+				deleted.set(document);
+			}
+		}
+		
+		publish(previous.withDeleted(deleted));
+	}
+	
+	/**
+	 * Merge all segments into one without the deleted documents, on the
+	 * background thread
+	 */
+	public synchronized void mergeSegments() {
+		if (merging || merger.isShutdown()) {
+			return;
+		}
+		
+		merging = true;
+		merger.execute(new Runnable() {
+			@Override
+			public void run() {
+				merge();
+			}
+		});
+	}
+	
+	/**
+	 * Wait for a running merge to finish and stop the background thread
+	 */
+	@Override
+	public void close() {
+		merger.shutdown();
+		
+		try {
+			merger.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Write the manifest of the given segments and make them visible to new queries
+	 */
+	private void publish(Segments segments) {
+		writeManifest(segments);
+		current = segments;
+		
+		if (segments.segments.length > MAX_SEGMENTS
+				|| 2 * segments.deleted.cardinality() > segments.getMaxDocument()) {
+			mergeSegments();
+		}
+	}
+	
+	/**
+	 * Merge the current segments. Documents deleted while merging are
+	 * deleted from the merged segment, and segments added while merging are
+	 * kept after it.
+	 */
+	private void merge() {
+		Segments from;
+		String name;
+		
+		synchronized (this) {
+			from = current;
+			name = SEGMENT_PREFIX + nextSegment++ + SEGMENT_SUFFIX;
+		}
+		
+		boolean installed = false;
+		
+		try {
+			
+			ArrayIndex merged = from.mergeLive();
+			Printer.printBinaryIndex(new File(directory, name).getPath(), merged);
+			PostingsIndex segment = loadSegment(name);
+			
+			synchronized (this) {
+				Segments now = current;
+				int count = from.segments.length;
+				int mergedEnd = from.bases[count];
+				BitSet deleted = new BitSet();
+				
+				for (int document = now.deleted.nextSetBit(0); document >= 0;
+						document = now.deleted.nextSetBit(document + 1)) {
+					
+					if (document >= mergedEnd) {
+						deleted.set(document - mergedEnd + segment.getMaxDocument());
+					} else if (!from.deleted.get(document)) {
+						deleted.set(findDocument(segment, now.getDocumentId(document)));
+					}
+				}
+				
+				PostingsIndex[] segments = new PostingsIndex[now.segments.length - count + 1];
+				String[] names = new String[segments.length];
+				segments[0] = segment;
+				names[0] = name;
+				System.arraycopy(now.segments, count, segments, 1, segments.length - 1);
+				System.arraycopy(now.names, count, names, 1, names.length - 1);
+				
+				merging = false;
+				installed = true;
+				publish(new Segments(segments, names, deleted, now));
+				
+				// Queries still running on older snapshots keep the mapped files
+				for (int i = 0; i < count; i++) {
+					new File(directory, from.names[i]).delete();
+				}
+			}
+			
+		} finally {
+			
+			if (!installed) {
+				synchronized (this) {
+					merging = false;
+				}
+			}
+			
+		}
+	}
+	
+	/**
+	 * Write a new segment file holding the given index
+	 * 
+	 * @return The file name of the segment
+	 */
+	private String writeSegment(PostingsIndex segment) {
+		String name = SEGMENT_PREFIX + nextSegment++ + SEGMENT_SUFFIX;
+		Printer.printBinaryIndex(new File(directory, name).getPath(), segment);
+		return name;
+	}
+	
+	/**
+	 * Memory-map the segment file of the given name
+	 */
+	private PostingsIndex loadSegment(String name) {
+		BinaryIndex segment = new BinaryIndex();
+		segment.loadIndex(new File(directory, name).getPath());
+		return segment;
+	}
+	
+	/**
+	 * Replace the manifest by one listing the given segments
+	 */
+	private void writeManifest(Segments segments) {
+		File manifest = new File(directory, MANIFEST);
+		File temporary = new File(directory, MANIFEST + ".tmp");
+		
+		try (
+			PrintWriter outputStream = new PrintWriter(new FileWriter(temporary));
+		) {
+			
+			for (int i = 0; i < segments.segments.length; i++) {
+				StringBuilder line = new StringBuilder(segments.names[i]);
+				
+				for (int document = segments.deleted.nextSetBit(segments.bases[i]);
+						document >= 0 && document < segments.bases[i + 1];
+						document = segments.deleted.nextSetBit(document + 1)) {
+					line.append(' ').append(segments.getDocumentId(document));
+				}
+				
+				outputStream.println(line);
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to write to output file");
+			exception.printStackTrace();
+			return;
+			
+		}
+		
+		try {
+			Files.move(temporary.toPath(), manifest.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to write to output file");
+			exception.printStackTrace();
+			
+		}
+	}
+	
+	/**
+	 * Binary search the document number of a document id in one segment
+	 * 
+	 * @return The document number, or -1 if the segment does not hold the document
+	 */
+	private static int findDocument(PostingsIndex segment, int documentId) {
+		int low = 0;
+		int high = segment.getMaxDocument() - 1;
+		
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = Integer.compare(segment.getDocumentId(middle), documentId);
+			
+			if (compare < 0) {
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		
+		return -1;
+	}
+	
+	@Override
+	public int getNumberOfDocuments() {
+		return current.getNumberOfDocuments();
+	}
+	
+	@Override
+	public int getMaxDocument() {
+		return current.getMaxDocument();
+	}
+	
+	@Override
+	public long getTotalLength() {
+		return current.getTotalLength();
+	}
+	
+	@Override
+	public int getDocumentId(int document) {
+		return current.getDocumentId(document);
+	}
+	
+	@Override
+	public int getDocumentLength(int document) {
+		return current.getDocumentLength(document);
+	}
+	
+	@Override
+	public int getNumberOfTerms() {
+		return current.getNumberOfTerms();
+	}
+	
+	@Override
+	public String getTerm(int termNumber) {
+		return current.getTerm(termNumber);
+	}
+	
+	@Override
+	public Iterator<String> getTerms(int termNumber) {
+		return current.getTerms(termNumber);
+	}
+	
+	@Override
+	public int findTerm(String term) {
+		return current.findTerm(term);
+	}
+	
+	@Override
+	public int findFirstTerm(String term) {
+		return current.findFirstTerm(term);
+	}
+	
+	@Override
+	public int getDocumentFrequency(int termNumber) {
+		return current.getDocumentFrequency(termNumber);
+	}
+	
+	@Override
+	public Postings getPostings(int termNumber) {
+		return current.getPostings(termNumber);
+	}
+	
+	@Override
+	public PostingsCursor getCursor(int termNumber) {
+		return current.getCursor(termNumber);
+	}
+	
+	@Override
+	public int[] getImpacts(int termNumber) {
+		return current.getImpacts(termNumber);
+	}
+	
+	/**
+	 * Segments are indexed without positions
+	 */
+	@Override
+	public boolean hasPositions() {
+		return false;
+	}
+	
+	@Override
+	public PostingsIndex snapshot() {
+		return current;
+	}
+	
+	/**
+	 * Immutable list of segments with their deleted documents. Document
+	 * numbers of a segment follow those of the segments before it, and term
+	 * numbers index a dictionary of the terms of all segments.
+	 */
+	private static class Segments implements PostingsIndex {
+		
+		final PostingsIndex[] segments;
+		final String[] names;
+		
+		// First document number of each segment, and the max document at the end
+		final int[] bases;
+		
+		// Deleted document numbers
+		final BitSet deleted;
+		
+		// Documents and tokens not deleted
+		private final int numberOfDocuments;
+		private final long totalLength;
+		
+		/*
+		 * Tokens of all segments in sorted order, their positions being the
+		 * term numbers
+		 */
+		private final TermDictionary terms;
+		
+		/*
+		 * Term number in each segment of each term number, -1 if absent,
+		 * flattened by term number
+		 */
+		private final int[] segmentTerms;
+		
+		// Terms of the documents of each segment, shared by all snapshots
+		// holding the segment
+		private final DocumentTerms[] documentTerms;
+		
+		/*
+		 * Document frequency of each segment term number counting only the
+		 * documents not deleted, or null for a segment without deleted
+		 * documents. Arrays are shared between snapshots until changed.
+		 */
+		private final int[][] liveFrequencies;
+		
+		/**
+		 * Initialize segments, keeping what the previous snapshot knows of the
+		 * segments it shares with them
+		 * 
+		 * @param previous The previous snapshot, or null
+		 */
+		Segments(PostingsIndex[] segments, String[] names, BitSet deleted, Segments previous) {
+			this.segments = segments;
+			this.names = names;
+			this.deleted = deleted;
+			
+			bases = new int[segments.length + 1];
+			long length = 0;
+			for (int i = 0; i < segments.length; i++) {
+				bases[i + 1] = bases[i] + segments[i].getMaxDocument();
+				length += segments[i].getTotalLength();
+			}
+			
+			numberOfDocuments = bases[segments.length] - deleted.cardinality();
+			for (int document = deleted.nextSetBit(0); document >= 0;
+					document = deleted.nextSetBit(document + 1)) {
+				length -= getDocumentLength(document);
+			}
+			totalLength = length;
+			
+			// Terms of every segment are sorted, so they are merged in one pass,
+			// matching each term of a segment to its term number
+			int count = segments.length;
+			int[] next = new int[count];
+			String[] heads = new String[count];
+			List<Iterator<String>> segmentTermIterators = new ArrayList<Iterator<String>>(count);
+			for (int i = 0; i < count; i++) {
+				Iterator<String> segmentTerms = segments[i].getTerms(0);
+				segmentTermIterators.add(segmentTerms);
+				heads[i] = segmentTerms.hasNext() ? segmentTerms.next() : null;
+			}
+			
+			List<String> sortedTerms = new ArrayList<String>();
+			int[] matched = new int[16 * count];
+			
+			while (true) {
+				String smallest = null;
+				for (String head : heads) {
+					if (head != null && (smallest == null || head.compareTo(smallest) < 0)) {
+						smallest = head;
+					}
+				}
+				
+				if (smallest == null) {
+					break;
+				}
+				
+				int global = sortedTerms.size();
+				sortedTerms.add(smallest);
+				if ((global + 1) * count > matched.length) {
+					matched = Arrays.copyOf(matched, 2 * matched.length);
+				}
+				
+				for (int i = 0; i < count; i++) {
+					if (heads[i] != null && heads[i].equals(smallest)) {
+						matched[global * count + i] = next[i]++;
+						Iterator<String> segmentTerms = segmentTermIterators.get(i);
+						heads[i] = segmentTerms.hasNext() ? segmentTerms.next() : null;
+					} else {
+						matched[global * count + i] = -1;
+					}
+				}
+			}
+			
+			terms = TermDictionary.build(sortedTerms.toArray(new String[sortedTerms.size()]));
+			segmentTerms = Arrays.copyOf(matched, sortedTerms.size() * count);
+			
+			documentTerms = shareDocumentTerms(previous);
+			liveFrequencies = countLiveFrequencies(previous);
+		}
+		
+		/**
+		 * Copy of the given segments sharing their dictionary
+		 */
+		private Segments(Segments other, BitSet deleted) {
+			this.segments = other.segments;
+			this.names = other.names;
+			this.bases = other.bases;
+			this.deleted = deleted;
+			terms = other.terms;
+			segmentTerms = other.segmentTerms;
+			documentTerms = other.documentTerms;
+			
+			numberOfDocuments = bases[segments.length] - deleted.cardinality();
+			long length = 0;
+			for (PostingsIndex segment : segments) {
+				length += segment.getTotalLength();
+			}
+			for (int document = deleted.nextSetBit(0); document >= 0;
+					document = deleted.nextSetBit(document + 1)) {
+				length -= getDocumentLength(document);
+			}
+			totalLength = length;
+			
+			liveFrequencies = countLiveFrequencies(other);
+		}
+		
+		/**
+		 * Return the terms of the documents of each segment, taken from the
+		 * previous snapshot for the segments it holds too
+		 */
+		private DocumentTerms[] shareDocumentTerms(Segments previous) {
+			DocumentTerms[] shared = new DocumentTerms[segments.length];
+			
+			for (int i = 0; i < segments.length; i++) {
+				int j = previous == null ? -1 : previous.indexOf(segments[i]);
+				shared[i] = j >= 0 ? previous.documentTerms[j] : new DocumentTerms(segments[i]);
+			}
+			
+			return shared;
+		}
+		
+		/**
+		 * Return the live document frequencies of each segment, starting from
+		 * those of the previous snapshot for the segments it holds too and
+		 * counting only the documents whose deletion changed since
+		 */
+		private int[][] countLiveFrequencies(Segments previous) {
+			int[][] frequencies = new int[segments.length][];
+			
+			for (int i = 0; i < segments.length; i++) {
+				int j = previous == null ? -1 : previous.indexOf(segments[i]);
+				int[] segmentFrequencies = j >= 0 ? previous.liveFrequencies[j] : null;
+				boolean copied = false;
+				
+				for (int document = 0; document < segments[i].getMaxDocument(); document++) {
+					document = nextChange(previous, j, i, document);
+					if (document < 0) {
+						break;
+					}
+					
+					// Copy the shared frequencies before the first change
+					if (!copied) {
+						segmentFrequencies = segmentFrequencies == null
+								? documentFrequencies(segments[i]) : segmentFrequencies.clone();
+						copied = true;
+					}
+					
+					int change = deleted.get(bases[i] + document) ? -1 : 1;
+					DocumentTerms documentTerm = documentTerms[i];
+					int[] termNumbers = documentTerm.getTerms();
+					int[] offsets = documentTerm.getOffsets();
+					for (int k = offsets[document]; k < offsets[document + 1]; k++) {
+						segmentFrequencies[termNumbers[k]] += change;
+					}
+				}
+				
+				frequencies[i] = segmentFrequencies;
+			}
+			
+			return frequencies;
+		}
+		
+		/**
+		 * Find the next document of segment i, from the given one, deleted in
+		 * these segments but not in segment j of the previous snapshot, or the
+		 * other way around
+		 * 
+		 * @return The document number in the segment, or -1 if there is none
+		 */
+		private int nextChange(Segments previous, int j, int i, int from) {
+			int end = segments[i].getMaxDocument();
+			
+			for (int document = from; document < end; document++) {
+				int now = deleted.nextSetBit(bases[i] + document) - bases[i];
+				int before = j < 0 ? end
+						: previous.deleted.nextSetBit(previous.bases[j] + document) - previous.bases[j];
+				if (now < 0 || now > end) {
+					now = end;
+				}
+				if (before < 0 || before > end) {
+					before = end;
+				}
+				
+				document = Math.min(now, before);
+				if (document >= end) {
+					return -1;
+				}
+				if (now != before) {
+					return document;
+				}
+			}
+			
+			return -1;
+		}
+		
+		/**
+		 * Return the document frequency of every term number of a segment
+		 */
+		private static int[] documentFrequencies(PostingsIndex segment) {
+			int[] frequencies = new int[segment.getNumberOfTerms()];
+			for (int termNumber = 0; termNumber < frequencies.length; termNumber++) {
+				frequencies[termNumber] = segment.getDocumentFrequency(termNumber);
+			}
+			return frequencies;
+		}
+		
+		/**
+		 * Return the position of the given segment, or -1 if it is not one of these
+		 */
+		private int indexOf(PostingsIndex segment) {
+			for (int i = 0; i < segments.length; i++) {
+				if (segments[i] == segment) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+		/**
+		 * Return the same segments with the given deleted documents
+		 */
+		Segments withDeleted(BitSet deleted) {
+			return new Segments(this, deleted);
+		}
+		
+		/**
+		 * Return the segment holding the given document number
+		 */
+		private int segmentOf(int document) {
+			int segment = Arrays.binarySearch(bases, document);
+			
+			// Skip empty segments sharing the same base
+			if (segment >= 0) {
+				while (bases[segment + 1] == document) {
+					segment++;
+				}
+				return segment;
+			}
+			
+			return -segment - 2;
+		}
+		
+		/**
+		 * Find the document number of the version of a document id that is
+		 * not deleted
+		 * 
+		 * @return The document number, or -1 if the document is not in the index
+		 */
+		int findLiveDocument(int documentId) {
+			for (int i = segments.length - 1; i >= 0; i--) {
+				int document = findDocument(segments[i], documentId);
+				if (document >= 0 && !deleted.get(bases[i] + document)) {
+					return bases[i] + document;
+				}
+			}
+			
+			return -1;
+		}
+		
+		/**
+		 * Collect the documents that are not deleted into one in-memory index
+		 */
+		ArrayIndex mergeLive() {
+			List<String> mergedTerms = new ArrayList<String>();
+			List<int[]> termDocuments = new ArrayList<int[]>();
+			List<int[]> termFrequencies = new ArrayList<int[]>();
+			
+			Iterator<String> termIterator = terms.iterator(0);
+			for (int termNumber = 0; termNumber < terms.size(); termNumber++) {
+				String term = termIterator.next();
+				
+				// Postings of a term as document ids instead of numbers
+				Postings postings = getPostings(termNumber);
+				int size = postings.size();
+				if (size == 0) {
+					continue;
+				}
+				
+				int[] documents = Arrays.copyOf(postings.getDocuments(), size);
+				for (int i = 0; i < size; i++) {
+					documents[i] = getDocumentId(documents[i]);
+				}
+				
+				mergedTerms.add(term);
+				termDocuments.add(documents);
+				termFrequencies.add(Arrays.copyOf(postings.getFrequencies(), size));
+			}
+			
+			ArrayIndex merged = new ArrayIndex();
+			merged.build(mergedTerms, termDocuments, termFrequencies, null);
+			return merged;
+		}
+		
+		@Override
+		public int getNumberOfDocuments() {
+			return numberOfDocuments;
+		}
+		
+		@Override
+		public int getMaxDocument() {
+			return bases[segments.length];
+		}
+		
+		@Override
+		public long getTotalLength() {
+			return totalLength;
+		}
+		
+		@Override
+		public int getDocumentId(int document) {
+			int segment = segmentOf(document);
+			return segments[segment].getDocumentId(document - bases[segment]);
+		}
+		
+		@Override
+		public int getDocumentLength(int document) {
+			int segment = segmentOf(document);
+			return segments[segment].getDocumentLength(document - bases[segment]);
+		}
+		
+		@Override
+		public int getNumberOfTerms() {
+			return terms.size();
+		}
+		
+		@Override
+		public String getTerm(int termNumber) {
+			return terms.getTerm(termNumber);
+		}
+		
+		@Override
+		public Iterator<String> getTerms(int termNumber) {
+			return terms.iterator(termNumber);
+		}
+		
+		@Override
+		public int findTerm(String term) {
+			return terms.findTerm(term);
+		}
+		
+		@Override
+		public int findFirstTerm(String term) {
+			return terms.findFirstTerm(term);
+		}
+		
+		@Override
+		public int getDocumentFrequency(int termNumber) {
+			int documentFrequency = 0;
+			for (int i = 0; i < segments.length; i++) {
+				int segmentTerm = segmentTerms[termNumber * segments.length + i];
+				if (segmentTerm >= 0) {
+					documentFrequency += liveFrequencies[i] != null ? liveFrequencies[i][segmentTerm]
+							: segments[i].getDocumentFrequency(segmentTerm);
+				}
+			}
+			
+			return documentFrequency;
+		}
+		
+		@Override
+		public Postings getPostings(int termNumber) {
+			Postings[] parts = new Postings[segments.length];
+			int total = 0;
+			
+			for (int i = 0; i < segments.length; i++) {
+				int segmentTerm = segmentTerms[termNumber * segments.length + i];
+				if (segmentTerm >= 0) {
+					parts[i] = segments[i].getPostings(segmentTerm);
+					total += parts[i].size();
+				}
+			}
+			
+			// Segments are in document number order, so appending keeps postings sorted
+			int[] documents = new int[total];
+			int[] frequencies = new int[total];
+			int size = 0;
+			
+			for (int i = 0; i < segments.length; i++) {
+				if (parts[i] == null) {
+					continue;
+				}
+				
+				int[] partDocuments = parts[i].getDocuments();
+				int[] partFrequencies = parts[i].getFrequencies();
+				
+				for (int j = 0; j < parts[i].size(); j++) {
+					int document = bases[i] + partDocuments[j];
+					if (!deleted.get(document)) {
+						documents[size] = document;
+						frequencies[size] = partFrequencies[j];
+						size++;
+					}
+				}
+			}
+			
+			return new Postings(documents, frequencies, size);
+		}
+		
+		/**
+		 * Return a cursor over the cursors of the segments one after the
+		 * other, which keeps the skip data of each segment and steps over
+		 * deleted documents
+		 */
+		@Override
+		public PostingsCursor getCursor(int termNumber) {
+			PostingsCursor[] cursors = new PostingsCursor[segments.length];
+			
+			for (int i = 0; i < segments.length; i++) {
+				int segmentTerm = segmentTerms[termNumber * segments.length + i];
+				if (segmentTerm >= 0) {
+					cursors[i] = segments[i].getCursor(segmentTerm);
+				}
+			}
+			
+			return new SegmentsCursor(cursors);
+		}
+		
+		/**
+		 * Return the impacts of all segments together. Impacts of deleted
+		 * documents are kept, which still bounds the score of every posting.
+		 */
+		@Override
+		public int[] getImpacts(int termNumber) {
+			int[][] parts = new int[segments.length][];
+			int total = 0;
+			
+			for (int i = 0; i < segments.length; i++) {
+				int segmentTerm = segmentTerms[termNumber * segments.length + i];
+				if (segmentTerm >= 0) {
+					parts[i] = segments[i].getImpacts(segmentTerm);
+					total += parts[i].length;
+				}
+			}
+			
+			int[] impacts = new int[total];
+			int size = 0;
+			for (int[] part : parts) {
+				if (part != null) {
+					System.arraycopy(part, 0, impacts, size, part.length);
+					size += part.length;
+				}
+			}
+			
+			return impacts;
+		}
+		
+		@Override
+		public boolean hasPositions() {
+			return false;
+		}
+		
+		@Override
+		public PostingsIndex snapshot() {
+			return this;
+		}
+		
+		/**
+		 * Cursor moving through the postings of the segments in document
+		 * number order. Skip data is that of the segment cursors, whose
+		 * blocks may still hold deleted documents, so block bounds stay upper
+		 * bounds.
+		 */
+		private class SegmentsCursor implements PostingsCursor {
+			
+			// Cursor of each segment, null if the segment lacks the term
+			private final PostingsCursor[] cursors;
+			
+			// Segment of the current posting, and of the block found by shallowAdvance
+			private int segment;
+			private int skipSegment;
+			
+			SegmentsCursor(PostingsCursor[] cursors) {
+				this.cursors = cursors;
+				settle();
+			}
+			
+			/**
+			 * Move on from exhausted segments and deleted documents until the
+			 * cursor is at a live posting or past the last segment
+			 */
+			private void settle() {
+				while (segment < cursors.length) {
+					PostingsCursor cursor = cursors[segment];
+					int document = cursor == null ? NO_MORE_DOCUMENTS : cursor.document();
+					
+					if (document == NO_MORE_DOCUMENTS) {
+						segment++;
+					} else if (deleted.get(bases[segment] + document)) {
+						cursor.advance(document + 1);
+					} else {
+						return;
+					}
+				}
+			}
+			
+			@Override
+			public int document() {
+				return segment < cursors.length
+						? bases[segment] + cursors[segment].document() : NO_MORE_DOCUMENTS;
+			}
+			
+			@Override
+			public int frequency() {
+				return cursors[segment].frequency();
+			}
+			
+			@Override
+			public void readPositions(int[] positions) {
+				cursors[segment].readPositions(positions);
+			}
+			
+			@Override
+			public void advance(int target) {
+				
+				// Segments ending before the target are skipped whole
+				while (segment < cursors.length && bases[segment + 1] <= target) {
+					segment++;
+				}
+				
+				if (segment < cursors.length && cursors[segment] != null) {
+					cursors[segment].advance(target - bases[segment]);
+				}
+				
+				settle();
+			}
+			
+			@Override
+			public boolean shallowAdvance(int target) {
+				skipSegment = Math.max(skipSegment, segment);
+				
+				while (skipSegment < cursors.length) {
+					PostingsCursor cursor = cursors[skipSegment];
+					if (bases[skipSegment + 1] > target && cursor != null
+							&& cursor.shallowAdvance(Math.max(0, target - bases[skipSegment]))) {
+						return true;
+					}
+					skipSegment++;
+				}
+				
+				return false;
+			}
+			
+			@Override
+			public int blockLastDocument() {
+				return bases[skipSegment] + cursors[skipSegment].blockLastDocument();
+			}
+			
+			@Override
+			public int blockMaxFrequency() {
+				return cursors[skipSegment].blockMaxFrequency();
+			}
+			
+			@Override
+			public int blockMinLength() {
+				return cursors[skipSegment].blockMinLength();
+			}
+		}
+	}
+	
+	/**
+	 * Term numbers of the documents of one segment, grouped by document,
+	 * listed from the postings of the segment when first needed
+	 */
+	private static class DocumentTerms {
+		
+		private final PostingsIndex segment;
+		
+		// Term numbers of document d are terms[offsets[d]] to terms[offsets[d + 1] - 1]
+		private int[] offsets;
+		private int[] terms;
+		
+		DocumentTerms(PostingsIndex segment) {
+			this.segment = segment;
+		}
+		
+		synchronized int[] getOffsets() {
+			build();
+			return offsets;
+		}
+		
+		synchronized int[] getTerms() {
+			build();
+			return terms;
+		}
+		
+		private void build() {
+			if (offsets != null) {
+				return;
+			}
+			
+			int maxDocument = segment.getMaxDocument();
+			int numberOfTerms = segment.getNumberOfTerms();
+			int[] counts = new int[maxDocument + 1];
+			
+			for (int termNumber = 0; termNumber < numberOfTerms; termNumber++) {
+				Postings postings = segment.getPostings(termNumber);
+				for (int i = 0; i < postings.size(); i++) {
+					counts[postings.getDocuments()[i] + 1]++;
+				}
+			}
+			for (int document = 0; document < maxDocument; document++) {
+				counts[document + 1] += counts[document];
+			}
+			
+			int[] grouped = new int[counts[maxDocument]];
+			int[] next = Arrays.copyOf(counts, maxDocument);
+			for (int termNumber = 0; termNumber < numberOfTerms; termNumber++) {
+				Postings postings = segment.getPostings(termNumber);
+				for (int i = 0; i < postings.size(); i++) {
+					grouped[next[postings.getDocuments()[i]]++] = termNumber;
+				}
+			}
+			
+			terms = grouped;
+			offsets = counts;
+		}
+	}
+	
+}
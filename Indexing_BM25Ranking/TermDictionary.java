@@ -0,0 +1,312 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Sorted term dictionary stored front-coded in blocks. Term numbers are
+ * positions in the sorted order of the terms. Each block starts with a
+ * whole term and every other term is stored as the length of the prefix it
+ * shares with the term before it followed by the rest of its bytes. Only the
+ * first term of each block is kept as a string, as a sparse index which is
+ * binary searched before one block is scanned.
+ * 
+ * Layout (fixed-width integers are big-endian):
+ *   int number of terms, int number of blocks,
+ *   int offset of each block relative to the end of this table,
+ *   blocks of BLOCK_SIZE terms: varint term byte length, UTF-8 term bytes,
+ *   then for each other term: varint shared prefix length in chars,
+ *   varint suffix byte length, UTF-8 suffix bytes
+ * 
+ * @author Adib
+ */
+public class TermDictionary {
+	
+	// Number of terms per front-coded block
+	public static final int BLOCK_SIZE = 16;
+	
+	private final ByteBuffer buffer;
+	private final int numberOfTerms;
+	
+	// Buffer position of each block
+	private final int[] blockPositions;
+	
+	// First term of each block
+	private final String[] firstTerms;
+	
+	/**
+	 * Read a dictionary written by the write method
+	 * 
+	 * @param buffer The buffer positioned at the start of the dictionary
+	 */
+	public TermDictionary(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+		
+		int position = buffer.position();
+		numberOfTerms = buffer.getInt(position);
+		int blocks = buffer.getInt(position + 4);
+		int blocksStart = position + 8 + 4 * blocks;
+		
+		blockPositions = new int[blocks];
+		firstTerms = new String[blocks];
+		
+		for (int block = 0; block < blocks; block++) {
+			blockPositions[block] = blocksStart + buffer.getInt(position + 8 + 4 * block);
+			
+			ByteBuffer view = this.buffer.duplicate();
+			view.position(blockPositions[block]);
+			firstTerms[block] = readString(view, BinaryIndex.readVarInt(view));
+		}
+	}
+	
+	/**
+	 * Front-code the given terms into a dictionary held in memory
+	 * 
+	 * @param sortedTerms The terms in increasing order
+	 * @return The dictionary
+	 */
+	public static TermDictionary build(String[] sortedTerms) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		try {
+			write(sortedTerms, new DataOutputStream(bytes));
+		} catch (IOException exception) {
+			throw new IllegalStateException(exception);
+		}
+		
+		return new TermDictionary(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+	
+	/**
+	 * Write the given terms in the dictionary layout
+	 * 
+	 * @param sortedTerms The terms in increasing order
+	 * @param output The stream to write to
+	 */
+	public static void write(String[] sortedTerms, DataOutput output) throws IOException {
+		int blocks = (sortedTerms.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		
+		ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+		DataOutputStream block = new DataOutputStream(blockBytes);
+		int[] blockOffsets = new int[blocks];
+		
+		for (int i = 0; i < sortedTerms.length; i++) {
+			String term = sortedTerms[i];
+			
+			if (i % BLOCK_SIZE == 0) {
+				blockOffsets[i / BLOCK_SIZE] = block.size();
+				byte[] termBytes = term.getBytes(StandardCharsets.UTF_8);
+				BinaryIndex.writeVarInt(block, termBytes.length);
+				block.write(termBytes);
+				continue;
+			}
+			
+			String previous = sortedTerms[i - 1];
+			int shared = 0;
+			int limit = Math.min(previous.length(), term.length());
+			while (shared < limit && previous.charAt(shared) == term.charAt(shared)) {
+				shared++;
+			}
+			
+			// Do not split a surrogate pair between prefix and suffix
+			if (shared > 0 && Character.isHighSurrogate(term.charAt(shared - 1))) {
+				shared--;
+			}
+			
+			byte[] suffixBytes = term.substring(shared).getBytes(StandardCharsets.UTF_8);
+			BinaryIndex.writeVarInt(block, shared);
+			BinaryIndex.writeVarInt(block, suffixBytes.length);
+			block.write(suffixBytes);
+		}
+		
+		output.writeInt(sortedTerms.length);
+		output.writeInt(blocks);
+		for (int blockOffset : blockOffsets) {
+			output.writeInt(blockOffset);
+		}
+		output.write(blockBytes.toByteArray());
+	}
+	
+	/**
+	 * Return the number of terms
+	 * 
+	 * @return The number of terms
+	 */
+	public int size() {
+		return numberOfTerms;
+	}
+	
+	/**
+	 * Return the term of the given term number
+	 * 
+	 * @param termNumber The term number
+	 * @return The term
+	 */
+	public String getTerm(int termNumber) {
+		int block = termNumber / BLOCK_SIZE;
+		String term = firstTerms[block];
+		
+		ByteBuffer view = openBlock(block);
+		for (int i = block * BLOCK_SIZE; i < termNumber; i++) {
+			term = readNext(view, term);
+		}
+		
+		return term;
+	}
+	
+	/**
+	 * Return the terms from the given term number to the last one in order.
+	 * Each term is decoded from the one before it, so going through n terms
+	 * decodes n terms, instead of up to BLOCK_SIZE each with getTerm.
+	 * 
+	 * @param termNumber The term number of the first term
+	 * @return Iterator over the terms from the term number on
+	 */
+	public Iterator<String> iterator(int termNumber) {
+		return new TermIterator(termNumber);
+	}
+	
+	/**
+	 * Look up the term number of the given term
+	 * 
+	 * @param term The term to look up
+	 * @return The term number, or -1 if the term is not in the dictionary
+	 */
+	public int findTerm(String term) {
+		int termNumber = findFirstTerm(term);
+		
+		if (termNumber < numberOfTerms && getTerm(termNumber).equals(term)) {
+			return termNumber;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Find the first term which is not smaller than the given term
+	 * 
+	 * @param term The term to look up
+	 * @return The term number, or the number of terms if all terms are smaller
+	 */
+	public int findFirstTerm(String term) {
+		
+		// Last block whose first term is not larger than the term
+		int low = 0;
+		int high = firstTerms.length - 1;
+		int block = -1;
+		
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = firstTerms[middle].compareTo(term);
+			
+			if (compare < 0) {
+				block = middle;
+				low = middle + 1;
+			} else if (compare > 0) {
+				high = middle - 1;
+			} else {
+				return middle * BLOCK_SIZE;
+			}
+		}
+		
+		if (block < 0) {
+			return 0;
+		}
+		
+		// Scan the block for the first term not smaller than the term
+		String current = firstTerms[block];
+		ByteBuffer view = openBlock(block);
+		int end = Math.min(numberOfTerms, (block + 1) * BLOCK_SIZE);
+		
+		for (int termNumber = block * BLOCK_SIZE + 1; termNumber < end; termNumber++) {
+			current = readNext(view, current);
+			if (current.compareTo(term) >= 0) {
+				return termNumber;
+			}
+		}
+		
+		return end;
+	}
+	
+	/**
+	 * Return a view positioned after the first term of the given block
+	 */
+	private ByteBuffer openBlock(int block) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(blockPositions[block]);
+		int length = BinaryIndex.readVarInt(view);
+		view.position(view.position() + length);
+		return view;
+	}
+	
+	/**
+	 * Decode the term following the given term in a block
+	 */
+	private static String readNext(ByteBuffer view, String previous) {
+		int shared = BinaryIndex.readVarInt(view);
+		String suffix = readString(view, BinaryIndex.readVarInt(view));
+		return previous.substring(0, shared).concat(suffix);
+	}
+	
+	private static String readString(ByteBuffer view, int length) {
+		byte[] bytes = new byte[length];
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Iterator decoding the terms of a block one after the other, moving to
+	 * the next block at its first term
+	 */
+	private class TermIterator implements Iterator<String> {
+		
+		private int termNumber;
+		
+		// Last term returned and the view positioned after it
+		private String current;
+		private ByteBuffer view;
+		
+		TermIterator(int termNumber) {
+			this.termNumber = termNumber;
+			
+			// Decode the terms of the block up to the one before the first term
+			if (termNumber < numberOfTerms && termNumber % BLOCK_SIZE != 0) {
+				int block = termNumber / BLOCK_SIZE;
+				current = firstTerms[block];
+				view = openBlock(block);
+				for (int i = block * BLOCK_SIZE + 1; i < termNumber; i++) {
+					current = readNext(view, current);
+				}
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return termNumber < numberOfTerms;
+		}
+		
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			
+			if (termNumber % BLOCK_SIZE == 0) {
+				int block = termNumber / BLOCK_SIZE;
+				current = firstTerms[block];
+				view = openBlock(block);
+			} else {
+				current = readNext(view, current);
+			}
+			
+			termNumber++;
+			return current;
+		}
+	}
+	
+}
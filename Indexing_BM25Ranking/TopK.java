@@ -0,0 +1,168 @@
+/**
+ * Bounded min-heap that keeps the k best (id, score) pairs offered to it.
+ * Higher scores rank first and equal scores are broken by the lower id,
+ * so the selected set and its order do not depend on the offer order.
+ * 
+ * @author Adib
+ */
+public class TopK {
+	
+	private final int capacity;
+	private final int[] ids;
+	private final double[] scores;
+	private int size;
+	
+	/**
+	 * Initialize an empty selection
+	 * 
+	 * @param capacity The number of pairs to keep
+	 */
+	public TopK(int capacity) {
+		this.capacity = capacity;
+		ids = new int[capacity];
+		scores = new double[capacity];
+	}
+	
+	/**
+	 * Offer a pair to the selection
+	 * 
+	 * @param id The id of the item
+	 * @param score The score of the item
+	 * @return true iff the pair was kept. False, otherwise
+	 */
+	public boolean offer(int id, double score) {
+		if (size < capacity) {
+			ids[size] = id;
+			scores[size] = score;
+			siftUp(size++);
+			return true;
+		}
+		
+		if (capacity == 0 || !isBetter(id, score, ids[0], scores[0])) {
+			return false;
+		}
+		
+		ids[0] = id;
+		scores[0] = score;
+		siftDown(0);
+		return true;
+	}
+	
+	/**
+	 * Return true iff k pairs are held
+	 * 
+	 * @return true iff the selection is full
+	 */
+	public boolean isFull() {
+		return size == capacity;
+	}
+	
+	/**
+	 * Return the score a new item has to beat to be kept
+	 * 
+	 * @return The lowest kept score once full, negative infinity before that
+	 */
+	public double getThreshold() {
+		return size < capacity || capacity == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Empty the heap into arrays ordered from the best to the worst pair
+	 * 
+	 * @param sortedIds Filled with the ids, must hold size() entries
+	 * @param sortedScores Filled with the scores, must hold size() entries
+	 * @return The number of pairs written
+	 */
+	public int drain(int[] sortedIds, double[] sortedScores) {
+		int count = size;
+		
+		while (size > 0) {
+			size--;
+			sortedIds[size] = ids[0];
+			sortedScores[size] = scores[0];
+			ids[0] = ids[size];
+			scores[0] = scores[size];
+			siftDown(0);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Select the positions of the k highest scores in O(n log k) time
+	 * 
+	 * @param scores The scores, indexed by position
+	 * @param k The number of positions to select
+	 * @return The selected positions ordered from the highest score, equal
+	 * scores ordered by increasing position
+	 */
+	public static int[] select(double[] scores, int k) {
+		TopK topK = new TopK(Math.max(0, Math.min(k, scores.length)));
+		
+		for (int i = 0; i < scores.length; i++) {
+			topK.offer(i, scores[i]);
+		}
+		
+		int[] positions = new int[topK.size()];
+		topK.drain(positions, new double[topK.size()]);
+		return positions;
+	}
+	
+	/**
+	 * Return true iff the first pair ranks before the second one
+	 */
+	private static boolean isBetter(int id, double score, int otherId, double otherScore) {
+		return score > otherScore || (score == otherScore && id < otherId);
+	}
+	
+	private void siftUp(int position) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			
+			if (!isBetter(ids[parent], scores[parent], ids[position], scores[position])) {
+				break;
+			}
+			
+			swap(parent, position);
+			position = parent;
+		}
+	}
+	
+	private void siftDown(int position) {
+		while (true) {
+			int worst = position;
+			int left = 2 * position + 1;
+			int right = left + 1;
+			
+			if (left < size && isBetter(ids[worst], scores[worst], ids[left], scores[left])) {
+				worst = left;
+			}
+			
+			if (right < size && isBetter(ids[worst], scores[worst], ids[right], scores[right])) {
+				worst = right;
+			}
+			
+			if (worst == position) {
+				return;
+			}
+			
+			swap(worst, position);
+			position = worst;
+		}
+	}
+	
+	private void swap(int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+	
+}
@@ -0,0 +1,69 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * SIMD kernel adding BM25 scores of postings to score accumulators with the
+ * JDK Vector API. Postings are processed a vector of lanes at a time: the term
+ * frequencies are loaded and widened to doubles, the length normalization of
+ * their documents is gathered, the scores are computed lane-wise and added to
+ * the accumulators gathered from and scattered back to the scores array. The
+ * documents of a term are distinct, so lanes never add to the same accumulator.
+ * Remaining postings go through the scalar kernel.
+ * 
+ * Only compiled and loaded with the jdk.incubator.vector module:
+ *   javac --add-modules jdk.incubator.vector VectorScoreKernel.java
+ *   java --add-modules jdk.incubator.vector ...
+ * 
+ * @author Adib
+ */
+public class VectorScoreKernel extends ScoreKernel {
+	
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	
+	// Integers of half the width, so that they widen to one vector of doubles
+	private static final VectorSpecies<Integer> INT_SPECIES =
+			IntVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+	
+	public VectorScoreKernel() {
+		if (SPECIES.length() < 2 || INT_SPECIES.length() != SPECIES.length()) {
+			throw new UnsupportedOperationException("No vector of two or more doubles");
+		}
+	}
+	
+	@Override
+	public void addScores(double[] scores, double[] documentK, int[] documents, int[] frequencies,
+			int n, double weight, double k1Plus1) {
+		
+		int bound = SPECIES.loopBound(n);
+		int i = 0;
+		
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector f = (DoubleVector) IntVector.fromArray(INT_SPECIES, frequencies, i)
+					.convertShape(VectorOperators.I2D, SPECIES, 0);
+			DoubleVector k = DoubleVector.fromArray(SPECIES, documentK, 0, documents, i);
+			
+			// Same operations in the same order as the scalar kernel
+			DoubleVector score = f.mul(k1Plus1).div(k.add(f)).mul(weight);
+			
+			DoubleVector.fromArray(SPECIES, scores, 0, documents, i).add(score)
+					.intoArray(scores, 0, documents, i);
+		}
+		
+		for (; i < n; i++) {
+			int document = documents[i];
+			int f = frequencies[i];
+			
+			scores[document] += weight * (k1Plus1 * f / (documentK[document] + f));
+		}
+	}
+	
+	@Override
+	public String getName() {
+		return "vector " + SPECIES.vectorBitSize() + " bit";
+	}
+	
+}
@@ -0,0 +1,552 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Compact representation of web pages and links between those pages, for
+ * graphs too large to hold as sets of page names. Page names are interned
+ * once into dense ids 0 to N - 1, in the order they are first read, and
+ * links are only kept as ids: the in-links of every page in compressed
+ * sparse row form, and the number of out-links of every page.
+ * 
+ * The in-links of page p are inLinks[inLinkOffsets[p]] to
+ * inLinks[inLinkOffsets[p + 1] - 1], in increasing order of id and without
+ * repeats. Page ids are found by name in an open addressing hash table of
+ * ids, kept for reading page rank and applying deltas, so a graph takes 4
+ * bytes per link and 20 to 28 bytes plus the name per page.
+ * 
+ * @author Adib
+ */
+public class CompactWebGraph {
+	
+	// Smallest size of the page table, a power of two
+	private static final int MIN_TABLE_SIZE = 16;
+	
+	// Name of each page id
+	private String[] pages;
+	
+	// Start of the in-links of each page, and their end for the last page
+	private int[] inLinkOffsets;
+	
+	// Ids of the pages linking to each page
+	private int[] inLinks;
+	
+	// Number of out-links of each page
+	private int[] outDegrees;
+	
+	// Out-links of each page in the same form as the in-links, built when
+	// first asked for
+	private int[] outLinkOffsets;
+	private int[] outLinks;
+	
+	// Hash table of page ids by name: each slot holds a page id plus one, or 0
+	// if empty, and the table is kept at most half full
+	private int[] pageTable;
+	
+	// Number of pages interned, of which pages holds the names while interning
+	private int internedPages;
+	
+	public CompactWebGraph() {
+		pages = new String[0];
+		pageTable = new int[MIN_TABLE_SIZE];
+		inLinkOffsets = new int[1];
+		inLinks = new int[0];
+		outDegrees = new int[0];
+	}
+	
+	/**
+	 * Create a web graph from the given input file name. Each line holds a
+	 * page followed by the pages linking to it, separated by spaces.
+	 * 
+	 * @param fileName The filename to read the data from
+	 */
+	public void initGraph(String fileName) {
+		clearPages();
+		
+		// Links as parallel lists of (page, in-link) ids, in reading order
+		int[] targets = new int[1024];
+		int[] sources = new int[1024];
+		int links = 0;
+		
+		try (
+			FileReader fileReader = new FileReader(fileName);
+			BufferedReader reader = new BufferedReader(fileReader);
+		) {
+			
+			String currentLine;
+			
+			while ((currentLine = reader.readLine()) != null) {
+				String words[] = currentLine.split(" ");
+				int page = intern(words[0]);
+				
+				for (int i = 1; i < words.length; i++) {
+					if (links == targets.length) {
+						int capacity = links + (links >> 1);
+						targets = Arrays.copyOf(targets, capacity);
+						sources = Arrays.copyOf(sources, capacity);
+					}
+					
+					targets[links] = page;
+					sources[links] = intern(words[i]);
+					links++;
+				}
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to read from input file");
+			exception.printStackTrace();
+			
+		}
+		
+		pages = Arrays.copyOf(pages, internedPages);
+		buildInLinks(targets, sources, links);
+	}
+	
+	/**
+	 * Create a compact copy of a web graph
+	 * 
+	 * @param graph The web graph to copy
+	 */
+	public void initGraph(WebGraph graph) {
+		clearPages();
+		
+		for (String page : graph.getAllPages()) {
+			intern(page);
+		}
+		
+		int links = 0;
+		for (HashSet<String> inLinkSet : graph.getInLinks().values()) {
+			links += inLinkSet.size();
+		}
+		
+		// Links as parallel lists of (page, in-link) ids
+		int[] targets = new int[links];
+		int[] sources = new int[links];
+		links = 0;
+		
+		for (Map.Entry<String, HashSet<String>> entry : graph.getInLinks().entrySet()) {
+			int page = findPage(entry.getKey());
+			
+			for (String inLink : entry.getValue()) {
+				targets[links] = page;
+				sources[links] = findPage(inLink);
+				links++;
+			}
+		}
+		
+		pages = Arrays.copyOf(pages, internedPages);
+		buildInLinks(targets, sources, links);
+	}
+	
+	/**
+	 * Change the links of the web graph with a delta file. Each line holds a
+	 * + or a - then a page followed by pages linking to it, separated by
+	 * spaces, to add or remove those links. New pages are given the next ids
+	 * so the ids of existing pages do not change; pages are never removed,
+	 * even when left without links.
+	 * 
+	 * @param fileName The filename to read the changes from
+	 */
+	public void applyDelta(String fileName) {
+		int numberOfPages = pages.length;
+		
+		// Added links as parallel lists of (page, in-link) ids, and removed
+		// links as page id in the high half and in-link id in the low half
+		int[] addedTargets = new int[1024];
+		int[] addedSources = new int[1024];
+		int added = 0;
+		long[] removedLinks = new long[1024];
+		int removed = 0;
+		
+		try (
+			FileReader fileReader = new FileReader(fileName);
+			BufferedReader reader = new BufferedReader(fileReader);
+		) {
+			
+			String currentLine;
+			
+			while ((currentLine = reader.readLine()) != null) {
+				String words[] = currentLine.split(" ");
+				if (words.length < 3) {
+					continue;
+				}
+				
+				if (words[0].equals("+")) {
+					int page = intern(words[1]);
+					
+					for (int i = 2; i < words.length; i++) {
+						if (added == addedTargets.length) {
+							int capacity = added + (added >> 1);
+							addedTargets = Arrays.copyOf(addedTargets, capacity);
+							addedSources = Arrays.copyOf(addedSources, capacity);
+						}
+						
+						addedTargets[added] = page;
+						addedSources[added] = intern(words[i]);
+						added++;
+					}
+				} else if (words[0].equals("-")) {
+					int page = findPage(words[1]);
+					
+					for (int i = 2; page >= 0 && i < words.length; i++) {
+						int inLink = findPage(words[i]);
+						if (inLink < 0) {
+							continue;
+						}
+						
+						if (removed == removedLinks.length) {
+							removedLinks = Arrays.copyOf(removedLinks, removed + (removed >> 1));
+						}
+						removedLinks[removed++] = (long) page << 32 | inLink;
+					}
+				}
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to read from delta file");
+			exception.printStackTrace();
+			
+		}
+		
+		Arrays.sort(removedLinks, 0, removed);
+		
+		// Keep the links not removed, then add the new ones
+		int[] targets = new int[inLinks.length + added];
+		int[] sources = new int[inLinks.length + added];
+		int links = 0;
+		
+		for (int page = 0; page < numberOfPages; page++) {
+			for (int i = inLinkOffsets[page]; i < inLinkOffsets[page + 1]; i++) {
+				long link = (long) page << 32 | inLinks[i];
+				
+				if (Arrays.binarySearch(removedLinks, 0, removed, link) < 0) {
+					targets[links] = page;
+					sources[links] = inLinks[i];
+					links++;
+				}
+			}
+		}
+		
+		System.arraycopy(addedTargets, 0, targets, links, added);
+		System.arraycopy(addedSources, 0, sources, links, added);
+		links += added;
+		
+		pages = Arrays.copyOf(pages, internedPages);
+		buildInLinks(targets, sources, links);
+	}
+	
+	/**
+	 * Read the page rank of every page from a file written by the Printer,
+	 * one page and its rank per line separated by a space
+	 * 
+	 * @param fileName The filename to read the page rank from
+	 * @return The page rank indexed by page id, 0 for pages not in the file
+	 */
+	public double[] readPageRank(String fileName) {
+		double[] pageRank = new double[pages.length];
+		
+		try (
+			FileReader fileReader = new FileReader(fileName);
+			BufferedReader reader = new BufferedReader(fileReader);
+		) {
+			
+			String currentLine;
+			
+			while ((currentLine = reader.readLine()) != null) {
+				String words[] = currentLine.split(" ");
+				if (words.length < 2) {
+					continue;
+				}
+				
+				int page = findPage(words[0]);
+				if (page >= 0) {
+					pageRank[page] = Double.parseDouble(words[1]);
+				}
+			}
+			
+		} catch (IOException exception) {
+			
+			System.out.println("Unable to read from page rank file");
+			exception.printStackTrace();
+			
+		}
+		
+		return pageRank;
+	}
+	
+	/**
+	 * Remove every page before a graph is read
+	 */
+	private void clearPages() {
+		pages = new String[MIN_TABLE_SIZE];
+		pageTable = new int[MIN_TABLE_SIZE];
+		internedPages = 0;
+	}
+	
+	/**
+	 * Return the id of a page, giving it the next id if it is new
+	 */
+	private int intern(String page) {
+		int slot = findSlot(page);
+		if (pageTable[slot] != 0) {
+			return pageTable[slot] - 1;
+		}
+		
+		if (internedPages == pages.length) {
+			pages = Arrays.copyOf(pages, Math.max(MIN_TABLE_SIZE, 2 * internedPages));
+		}
+		pages[internedPages] = page;
+		pageTable[slot] = ++internedPages;
+		
+		if (2 * internedPages > pageTable.length) {
+			int[] table = new int[2 * pageTable.length];
+			pageTable = table;
+			for (int id = 0; id < internedPages; id++) {
+				table[findSlot(pages[id])] = id + 1;
+			}
+		}
+		
+		return internedPages - 1;
+	}
+	
+	/**
+	 * Return the id of a page
+	 * 
+	 * @param page The name of the page
+	 * @return The page id, or -1 if the page is not in the graph
+	 */
+	private int findPage(String page) {
+		return pageTable[findSlot(page)] - 1;
+	}
+	
+	/**
+	 * Return the slot of the page table holding the page, or the empty slot
+	 * where it would go, probing linearly from the hash of its name
+	 */
+	private int findSlot(String page) {
+		int mask = pageTable.length - 1;
+		int hash = page.hashCode() * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		
+		while (pageTable[slot] != 0 && !pages[pageTable[slot] - 1].equals(page)) {
+			slot = (slot + 1) & mask;
+		}
+		
+		return slot;
+	}
+	
+	/**
+	 * Group the links by page with a counting sort, then sort and remove
+	 * repeated in-links of each page and count the out-links of each page
+	 */
+	private void buildInLinks(int[] targets, int[] sources, int links) {
+		int numberOfPages = pages.length;
+		
+		int[] offsets = new int[numberOfPages + 1];
+		for (int i = 0; i < links; i++) {
+			offsets[targets[i] + 1]++;
+		}
+		for (int page = 0; page < numberOfPages; page++) {
+			offsets[page + 1] += offsets[page];
+		}
+		
+		int[] grouped = new int[links];
+		int[] next = Arrays.copyOf(offsets, numberOfPages);
+		for (int i = 0; i < links; i++) {
+			grouped[next[targets[i]]++] = sources[i];
+		}
+		
+		// Sort the in-links of each page and move them down over the repeats
+		outDegrees = new int[numberOfPages];
+		int size = 0;
+		
+		for (int page = 0; page < numberOfPages; page++) {
+			int start = offsets[page];
+			int end = offsets[page + 1];
+			offsets[page] = size;
+			
+			Arrays.sort(grouped, start, end);
+			
+			for (int i = start; i < end; i++) {
+				if (i == start || grouped[i] != grouped[i - 1]) {
+					grouped[size++] = grouped[i];
+					outDegrees[grouped[i]]++;
+				}
+			}
+		}
+		offsets[numberOfPages] = size;
+		
+		inLinkOffsets = offsets;
+		inLinks = size == links ? grouped : Arrays.copyOf(grouped, size);
+		outLinkOffsets = null;
+		outLinks = null;
+	}
+	
+	/**
+	 * Turn the in-links around into the out-links of each page, which keep
+	 * the increasing order of id since pages are visited in that order
+	 */
+	private void buildOutLinks() {
+		int numberOfPages = pages.length;
+		
+		int[] offsets = new int[numberOfPages + 1];
+		for (int page = 0; page < numberOfPages; page++) {
+			offsets[page + 1] = offsets[page] + outDegrees[page];
+		}
+		
+		int[] targets = new int[inLinks.length];
+		int[] next = Arrays.copyOf(offsets, numberOfPages);
+		for (int page = 0; page < numberOfPages; page++) {
+			for (int i = inLinkOffsets[page]; i < inLinkOffsets[page + 1]; i++) {
+				targets[next[inLinks[i]]++] = page;
+			}
+		}
+		
+		outLinkOffsets = offsets;
+		outLinks = targets;
+	}
+	
+	/**
+	 * Return the number of unique pages in the web graph
+	 * 
+	 * @return The number of unique pages
+	 */
+	public int getNumberOfPages() {
+		return pages.length;
+	}
+	
+	/**
+	 * Return the number of unique links in the web graph
+	 * 
+	 * @return The number of links
+	 */
+	public int getNumberOfLinks() {
+		return inLinks.length;
+	}
+	
+	/**
+	 * Return the name of a page
+	 * 
+	 * @param page The id of the page
+	 * @return The name of the page
+	 */
+	public String getPage(int page) {
+		return pages[page];
+	}
+	
+	/**
+	 * Return the start of the in-links of each page in the array returned by
+	 * getInLinks, followed by the number of links. Not to be modified.
+	 * 
+	 * @return The offsets, one more than the number of pages
+	 */
+	public int[] getInLinkOffsets() {
+		return inLinkOffsets;
+	}
+	
+	/**
+	 * Return the ids of the pages linking to each page, grouped by page.
+	 * Not to be modified.
+	 * 
+	 * @return The in-links
+	 */
+	public int[] getInLinks() {
+		return inLinks;
+	}
+	
+	/**
+	 * Return the start of the out-links of each page in the array returned by
+	 * getOutLinks, followed by the number of links. Built on the first call.
+	 * Not to be modified.
+	 * 
+	 * @return The offsets, one more than the number of pages
+	 */
+	public int[] getOutLinkOffsets() {
+		if (outLinkOffsets == null) {
+			buildOutLinks();
+		}
+		return outLinkOffsets;
+	}
+	
+	/**
+	 * Return the ids of the pages each page links to, grouped by page. Built
+	 * on the first call. Not to be modified.
+	 * 
+	 * @return The out-links
+	 */
+	public int[] getOutLinks() {
+		if (outLinks == null) {
+			buildOutLinks();
+		}
+		return outLinks;
+	}
+	
+	/**
+	 * Return the number of out-links of each page. Not to be modified.
+	 * 
+	 * @return The out-degrees indexed by page id
+	 */
+	public int[] getOutDegrees() {
+		return outDegrees;
+	}
+	
+	/**
+	 * Return number of out-links to a page
+	 * 
+	 * @param page The id of the page
+	 * @return Number of those out-links
+	 */
+	public int getNumberOfOutLinks(int page) {
+		return outDegrees[page];
+	}
+	
+	/**
+	 * Return number of in-links to a page
+	 * 
+	 * @param page The id of the page
+	 * @return Number of those in-links
+	 */
+	public int getNumberOfInLinks(int page) {
+		return inLinkOffsets[page + 1] - inLinkOffsets[page];
+	}
+	
+	/**
+	 * Return the number of source pages i.e. they have no in-links
+	 * 
+	 * @return The number of sources
+	 */
+	public int getNumberOfSourcePages() {
+		int count = 0;
+		
+		for (int page = 0; page < pages.length; page++) {
+			if (getNumberOfInLinks(page) == 0) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Return the number of sink pages i.e. they have no out-links
+	 * 
+	 * @return The number of sinks
+	 */
+	public int getNumberOfSinkPages() {
+		int count = 0;
+		
+		for (int page = 0; page < pages.length; page++) {
+			if (outDegrees[page] == 0) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+}
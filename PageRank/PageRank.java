@@ -6,10 +6,57 @@ public class PageRank {
 	private static final String PERPLEXITY_FILE_NAME = "perplexity.txt";
 	private static final String TOP_50_PAGE_RANK_FILE_NAME = "top_50_page_rank.txt";
 	private static final String TOP_50_INLINK_FILE_NAME = "top_50_inlink.txt";
+	private static final String UPDATED_GRAPH_FILE_NAME = "updated_graph.txt";
 	
 	public static void main(String[] args) {
-		if (args.length != 1) {
-			System.out.println("Provide a file name as an argument");
+		if (args.length < 1) {
+			System.out.println("Provide a file name as an argument, optionally followed by compact, "
+					+ "the number of threads, jacobi, gauss-seidel or adaptive, and "
+					+ "perplexity=<tolerance>, l1=<tolerance> or max-delta=<tolerance>, or "
+					+ "ranks=<page rank file> and delta=<delta file> to update page rank");
+			return;
+		}
+		
+		boolean compact = false;
+		int threads = 1;
+		String rankFile = null;
+		String deltaFile = null;
+		PageRankAlgorithm algorithm =  new PageRankAlgorithm();
+		
+		for (int i = 1; i < args.length; i++) {
+			String[] option = args[i].split("=");
+			String name = option[0].toUpperCase().replace('-', '_');
+			
+			if (name.equals("COMPACT")) {
+				compact = true;
+			} else if (name.equals("RANKS") && option.length == 2) {
+				rankFile = option[1];
+			} else if (name.equals("DELTA") && option.length == 2) {
+				deltaFile = option[1];
+			} else if (option.length == 2) {
+				algorithm.setConvergence(PageRankAlgorithm.Convergence.valueOf(name),
+						Double.parseDouble(option[1]));
+			} else if (Character.isDigit(name.charAt(0))) {
+				threads = Integer.parseInt(name);
+			} else {
+				algorithm.setSolver(PageRankAlgorithm.Solver.valueOf(name));
+			}
+		}
+		
+		algorithm.setParallelism(threads);
+		
+		if (deltaFile != null) {
+			if (rankFile == null) {
+				System.out.println("Provide the page rank before the change as ranks=<page rank file>");
+				return;
+			}
+			
+			runIncremental(args[0], rankFile, deltaFile, algorithm);
+			return;
+		}
+		
+		if (compact) {
+			runCompact(args[0], algorithm);
 			return;
 		}
 		
@@ -18,7 +65,6 @@ public class PageRank {
 		graph.initGraph(args[0]);
 		
 		// Run Page Rank
-		PageRankAlgorithm algorithm =  new PageRankAlgorithm();
 		HashMap<String, Double> pages = algorithm.calculatePageRank(graph);
 		
 		// Printer methods
@@ -38,4 +84,62 @@ public class PageRank {
 		System.out.println("Total Sinks: " + graph.getNumberOfSinkPages());
 		System.out.println("Total Decreased PageRank: " + algorithm.getNumberOfDegradedPages());
 	}
+	
+	/**
+	 * Run and print page rank on a compact web graph, for graphs too large to
+	 * hold as sets of page names
+	 * 
+	 * @param fileName The file to read the graph from
+	 * @param algorithm The page rank algorithm with its options set
+	 */
+	private static void runCompact(String fileName, PageRankAlgorithm algorithm) {
+		
+		// Form compact web graph
+		CompactWebGraph graph = new CompactWebGraph();
+		graph.initGraph(fileName);
+		
+		// Run Page Rank
+		double[] pageRank = algorithm.calculatePageRank(graph);
+		
+		Printer.printPageRank(graph, pageRank, PAGE_RANK_FILE_NAME);
+		
+		//Uncomment next line to print top 50 pages sorted by page rank
+		//Printer.printTopPageRank(graph, pageRank, 50, TOP_50_PAGE_RANK_FILE_NAME);
+		
+		System.out.println("Total Pages: " + graph.getNumberOfPages());
+		System.out.println("Total Sources: " + graph.getNumberOfSourcePages());
+		System.out.println("Total Sinks: " + graph.getNumberOfSinkPages());
+		System.out.println("Total Decreased PageRank: " + algorithm.getNumberOfDegradedPages());
+	}
+	
+	/**
+	 * Update page rank saved for a compact web graph after its links changed,
+	 * and print the new page rank and the changed graph, ready for the next
+	 * update
+	 * 
+	 * @param fileName The file to read the graph before the change from
+	 * @param rankFile The file to read the page rank before the change from
+	 * @param deltaFile The file to read the links added and removed from
+	 * @param algorithm The page rank algorithm with its options set
+	 */
+	private static void runIncremental(String fileName, String rankFile, String deltaFile,
+			PageRankAlgorithm algorithm) {
+		
+		// Form compact web graph and its page rank before the change
+		CompactWebGraph graph = new CompactWebGraph();
+		graph.initGraph(fileName);
+		double[] previousRank = graph.readPageRank(rankFile);
+		
+		// Update Page Rank
+		double[] pageRank = algorithm.updatePageRank(graph, previousRank, deltaFile);
+		
+		Printer.printPageRank(graph, pageRank, PAGE_RANK_FILE_NAME);
+		Printer.printGraph(graph, UPDATED_GRAPH_FILE_NAME);
+		
+		System.out.println("Total Pages: " + graph.getNumberOfPages());
+		System.out.println("Total Sources: " + graph.getNumberOfSourcePages());
+		System.out.println("Total Sinks: " + graph.getNumberOfSinkPages());
+		System.out.println("Total Pushes: " + algorithm.getNumberOfPushes());
+		System.out.println("Total Decreased PageRank: " + algorithm.getNumberOfDegradedPages());
+	}
 }
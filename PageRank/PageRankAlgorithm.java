@@ -1,6 +1,7 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Class used for calculating the Page Rank for a given web graph
@@ -9,32 +10,80 @@ import java.util.Map;
  */
 public class PageRankAlgorithm {
 	
+	/**
+	 * Methods of solving for page rank
+	 */
+	public enum Solver {
+		
+		// Power iteration, every rank computed from the previous iteration
+		JACOBI,
+		
+		// Ranks updated in place in order of page id, on one thread
+		GAUSS_SEIDEL,
+		
+		// Power iteration which stops updating pages whose rank converged
+		ADAPTIVE
+	}
+	
+	/**
+	 * Criteria deciding when page rank has converged
+	 */
+	public enum Convergence {
+		
+		// Perplexity changed by less than the tolerance for 4 iterations
+		PERPLEXITY,
+		
+		// Sum of the changes of all ranks is less than the tolerance
+		L1,
+		
+		// Largest change of a rank is less than the tolerance
+		MAX_DELTA
+	}
+	
 	// Constants for Page Rank
 	private final static double DAMPING_FACTOR = 0.85;
-	private final static double INVERSE_DAMPING_FACTOR;
 	private final static int CONSECUTIVE_ITERATION_COUNT = 4;
 	private final static double LOG_BASE_TWO = Math.log(2);
 	private final ArrayList<Double> perplexity;
 	
+	// Iterations after which page rank is returned even if not converged
+	private final static int MAX_ITERATIONS = 1000;
+	
+	// Relative change under which adaptive iterations freeze a page when
+	// convergence is decided by perplexity
+	private final static double ADAPTIVE_TOLERANCE = 1e-6;
+	
+	// Sum of the residuals left by an incremental update when convergence is
+	// decided by perplexity
+	private final static double INCREMENTAL_TOLERANCE = 1e-9;
+	
 	// The number of iterations that has passed since the change in
-	// perplexity is less than 1
+	// perplexity is less than the tolerance
 	private int convergenceCount;
 	
-	private HashMap<String, Double> pageRank;
-	private HashMap<String, Double> initPageRank;
+	private Solver solver = Solver.JACOBI;
+	private Convergence convergence = Convergence.PERPLEXITY;
+	private double tolerance = 1;
 	
-	static {
-		INVERSE_DAMPING_FACTOR = 1 - DAMPING_FACTOR;
-	}
+	// Page rank by page id, and its initial, uniform value
+	private double[] pageRank;
+	private double initPageRankValue;
+	
+	// Pool calculating page rank in parallel, or null to calculate on the
+	// calling thread
+	private ForkJoinPool pool;
+	
+	// Residuals pushed by the last incremental update
+	private long pushes;
 	
 	public PageRankAlgorithm() {
 		perplexity = new ArrayList<Double>();
-		pageRank = new HashMap<String, Double>();
-		initPageRank = new HashMap<String, Double>();
+		pageRank = new double[0];
 	}
 	
 	/**
-	 * Calculate the page rank for the given web-graph
+	 * Calculate the page rank for the given web-graph, on a compact copy of
+	 * the graph
 	 * 
 	 * @param graph The web graph
 	 * @return Page along with its page-rank
@@ -46,79 +95,360 @@ public class PageRankAlgorithm {
 			return null;
 		}
 		
-		int numberOfPages = graph.getNumberOfPages();
+		CompactWebGraph compactGraph = new CompactWebGraph();
+		compactGraph.initGraph(graph);
+		
+		double[] ranks = calculatePageRank(compactGraph);
 		HashMap<String, Double> pageRank = new HashMap<String, Double>();
 		
-		// Initial Value
-		double initPageRankValue = 1 / (double) numberOfPages;
-		for (String page : graph.getAllPages()) {
-			pageRank.put(page, initPageRankValue);
+		for (int page = 0; page < ranks.length; page++) {
+			pageRank.put(compactGraph.getPage(page), ranks[page]);
 		}
 		
-		// Copy page rank to Init Page Rank
-		for (Map.Entry<String, Double> entry : pageRank.entrySet()) {
-			initPageRank.put(entry.getKey(), entry.getValue());
+		return pageRank;
+	}
+	
+	/**
+	 * Choose the number of threads calculating page rank. Page ranks are the
+	 * same whatever the number of threads.
+	 * 
+	 * @param parallelism The number of threads, 1 to calculate on the calling thread
+	 */
+	public void setParallelism(int parallelism) {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		
+		if (parallelism > 1) {
+			pool = new ForkJoinPool(parallelism);
+		}
+	}
+	
+	/**
+	 * Choose the method of solving for page rank
+	 * 
+	 * @param solver The solver, Jacobi by default
+	 */
+	public void setSolver(Solver solver) {
+		this.solver = solver;
+	}
+	
+	/**
+	 * Choose when page rank has converged. By default it has when the
+	 * perplexity changed by less than 1 in 4 consecutive iterations.
+	 * 
+	 * @param convergence The criterion
+	 * @param tolerance The change under which page rank has converged
+	 */
+	public void setConvergence(Convergence convergence, double tolerance) {
+		this.convergence = convergence;
+		this.tolerance = tolerance;
+	}
+	
+	/**
+	 * Calculate the page rank for the given compact web-graph, directly on
+	 * its arrays of page ids. Two rank vectors are allocated up front and
+	 * swapped between iterations, the inverse out-degree of every page is
+	 * computed once, and an iteration does no allocation and no hashing.
+	 * Ranges of pages are ranked in parallel if chosen by setParallelism,
+	 * except by the Gauss-Seidel solver.
+	 * 
+	 * @param graph The compact web graph
+	 * @return Page rank indexed by page id
+	 */
+	public double[] calculatePageRank(CompactWebGraph graph) {
+		
+		// Null Check
+		if (graph == null) {
+			return null;
 		}
 		
-		perplexity.add(calculatePerplexity(pageRank));
+		// Initial Value
+		PageRankIteration iteration = new PageRankIteration(graph, DAMPING_FACTOR);
+		initPageRankValue = 1 / (double) graph.getNumberOfPages();
+		
+		perplexity.add(calculatePerplexity(iteration.getPageRank()));
+		
+		pageRank = solve(iteration);
+		return pageRank;
+	}
+	
+	/**
+	 * Run iterations of the chosen solver until converged
+	 * 
+	 * @param iteration The iteration holding the initial page rank
+	 * @return Page rank indexed by page id
+	 */
+	private double[] solve(PageRankIteration iteration) {
 		
 		// Page Rank iteration
+		int iterations = 0;
 		do {
-			double sinkPR = 0;
+			switch (solver) {
+			case GAUSS_SEIDEL:
+				iteration.iterateGaussSeidel();
+				break;
+			case ADAPTIVE:
+				iterateAdaptive(iteration);
+				break;
+			default:
+				iteration.iterate(pool);
+			}
+			iterations++;
+		} while (!isSolved(iteration) && iterations < MAX_ITERATIONS);
+		
+		return iteration.getPageRank();
+	}
+	
+	/**
+	 * Update page rank after links of the web graph changed, starting from
+	 * the page rank before the change rather than from uniform ranks.
+	 * 
+	 * Ranks x solve x = c + D * P * x, with P spreading the rank of every
+	 * page over its out-links and c the rank every page gets from
+	 * teleportation and sinks. Whatever the constant c, the solution is page
+	 * rank up to scale, so c is kept at its value before the change: pages
+	 * whose in-links and their out-degrees did not change then start with no
+	 * residual c + D * P * x - x. Only pages whose residual is over the
+	 * tolerance add it to their rank and push it on to the pages they link
+	 * to, so the work follows the ranks which actually change rather than
+	 * the size of the graph. Ranks are scaled to add up to 1 at the end.
+	 * 
+	 * A change reaching most of the graph is cheaper to finish with whole
+	 * iterations, so after as many pushes as pages the chosen solver takes
+	 * over, warm started from the pushed ranks.
+	 * 
+	 * @param graph The compact web graph before the change, which is changed
+	 * @param previousRank Page rank of the graph before the change, indexed by page id
+	 * @param deltaFile The filename of the links added and removed
+	 * @return Page rank of the changed graph, indexed by page id
+	 */
+	public double[] updatePageRank(CompactWebGraph graph, double[] previousRank, String deltaFile) {
+		
+		// Null Check
+		if (graph == null || previousRank == null) {
+			return null;
+		}
+		
+		// Rank from teleportation and sinks before the change
+		int[] outDegrees = graph.getOutDegrees();
+		double totalRank = 0;
+		double sinkRank = 0;
+		
+		for (int page = 0; page < previousRank.length; page++) {
+			totalRank += previousRank[page];
+			if (outDegrees[page] == 0) {
+				sinkRank += previousRank[page];
+			}
+		}
+		
+		double constant = ((1 - DAMPING_FACTOR) * totalRank + DAMPING_FACTOR * sinkRank)
+				/ previousRank.length;
+		
+		graph.applyDelta(deltaFile);
+		
+		int numberOfPages = graph.getNumberOfPages();
+		double[] ranks = Arrays.copyOf(previousRank, numberOfPages);
+		Arrays.fill(ranks, previousRank.length, numberOfPages, constant);
+		
+		double threshold;
+		switch (convergence) {
+		case L1:
+			threshold = tolerance / numberOfPages;
+			break;
+		case MAX_DELTA:
+			threshold = tolerance;
+			break;
+		default:
+			threshold = INCREMENTAL_TOLERANCE / numberOfPages;
+		}
+		
+		boolean pushed = pushResiduals(graph, ranks, constant, threshold, numberOfPages);
+		
+		double sum = 0;
+		for (double rank : ranks) {
+			sum += rank;
+		}
+		for (int page = 0; page < numberOfPages; page++) {
+			ranks[page] /= sum;
+		}
+		
+		initPageRankValue = 1 / (double) numberOfPages;
+		perplexity.add(calculatePerplexity(ranks));
+		
+		if (!pushed) {
+			ranks = solve(new PageRankIteration(graph, DAMPING_FACTOR, ranks));
+		}
+		
+		pageRank = ranks;
+		return pageRank;
+	}
+	
+	/**
+	 * Compute the residual of every page once from its in-links, then push
+	 * the residuals over the threshold from a queue of pages until none is
+	 * left over it, or the maximum number of pushes is reached
+	 * 
+	 * @return true iff no residual is left over the threshold
+	 */
+	private boolean pushResiduals(CompactWebGraph graph, double[] ranks, double constant,
+			double threshold, long maxPushes) {
+		
+		int numberOfPages = graph.getNumberOfPages();
+		int[] inLinkOffsets = graph.getInLinkOffsets();
+		int[] inLinks = graph.getInLinks();
+		int[] outDegrees = graph.getOutDegrees();
+		
+		double[] residuals = new double[numberOfPages];
+		for (int page = 0; page < numberOfPages; page++) {
+			double sum = 0;
+			for (int i = inLinkOffsets[page]; i < inLinkOffsets[page + 1]; i++) {
+				sum += ranks[inLinks[i]] / outDegrees[inLinks[i]];
+			}
+			residuals[page] = constant + DAMPING_FACTOR * sum - ranks[page];
+		}
+		
+		// Pages with a residual over the threshold, in a circular queue
+		int[] queue = new int[numberOfPages];
+		boolean[] queued = new boolean[numberOfPages];
+		int head = 0;
+		int size = 0;
+		
+		for (int page = 0; page < numberOfPages; page++) {
+			if (Math.abs(residuals[page]) > threshold) {
+				queue[size++] = page;
+				queued[page] = true;
+			}
+		}
+		
+		int[] outLinkOffsets = graph.getOutLinkOffsets();
+		int[] outLinks = graph.getOutLinks();
+		pushes = 0;
+		
+		while (size > 0) {
+			if (pushes == maxPushes) {
+				return false;
+			}
+			
+			int page = queue[head];
+			head = head + 1 == numberOfPages ? 0 : head + 1;
+			size--;
+			queued[page] = false;
 			
-			// Calculate total sink PR
-			for (String page : graph.getSinkPages()) {
-				sinkPR += pageRank.get(page);
+			double residual = residuals[page];
+			if (Math.abs(residual) <= threshold) {
+				continue;
 			}
 			
-			HashMap<String, Double> newPageRank = new HashMap<String, Double>();
+			ranks[page] += residual;
+			residuals[page] = 0;
+			pushes++;
 			
-			for (String page : graph.getAllPages()) {
-				
-				// Teleportation
-				double rank = INVERSE_DAMPING_FACTOR / (double) numberOfPages;
-				
-				// Spread remaining sink PR evenly
-				rank += (DAMPING_FACTOR * sinkPR) / (double) numberOfPages;
+			if (outDegrees[page] == 0) {
+				continue;
+			}
+			
+			double share = DAMPING_FACTOR * residual / outDegrees[page];
+			for (int i = outLinkOffsets[page]; i < outLinkOffsets[page + 1]; i++) {
+				int outLink = outLinks[i];
+				residuals[outLink] += share;
 				
-				// Pages pointing to p
-				for (String inLink : graph.getInLinks(page)) {
-					
-					// Add share of page rank from in-links
-					rank += (DAMPING_FACTOR * pageRank.get(inLink)) / 
-							(double) graph.getNumberOfOutLinks(inLink);
+				if (!queued[outLink] && Math.abs(residuals[outLink]) > threshold) {
+					int tail = head + size < numberOfPages ? head + size : head + size - numberOfPages;
+					queue[tail] = outLink;
+					queued[outLink] = true;
+					size++;
 				}
-				
-				newPageRank.put(page, rank);
 			}
-			
-			pageRank = newPageRank;
-			
-		} while (!isConverged(pageRank));
+		}
 		
-		this.pageRank = pageRank;
-		return pageRank;
+		return true;
 	}
 	
 	/**
-	 * Check whether the convergence of page rank is achieved or not
+	 * Run an adaptive iteration freezing pages whose rank changed by less
+	 * than their share of the tolerance: the tolerance itself for the largest
+	 * change, and the tolerance times the rank for the sum of the changes, as
+	 * ranks add up to 1. Changes shrink by about the damping factor each
+	 * iteration, so shares are scaled by 1 minus the damping factor to bound
+	 * the changes a frozen page misses rather than only the last one.
+	 */
+	private void iterateAdaptive(PageRankIteration iteration) {
+		switch (convergence) {
+		case L1:
+			iteration.iterateAdaptive(pool, 0, tolerance * (1 - DAMPING_FACTOR));
+			break;
+		case MAX_DELTA:
+			iteration.iterateAdaptive(pool, tolerance * (1 - DAMPING_FACTOR), 0);
+			break;
+		default:
+			iteration.iterateAdaptive(pool, 0, ADAPTIVE_TOLERANCE);
+		}
+	}
+	
+	/**
+	 * Check whether page rank converged. Adaptive iterations only converge
+	 * once a full iteration updating frozen pages too, and unfreezing those
+	 * still changing, meets the criterion as well.
 	 * 
-	 * @param pageRank The given page rank for a web graph
+	 * @param iteration The iteration run last
 	 * @return true iff the convergence is achieved. False, otherwise
 	 */
-	private boolean isConverged(HashMap<String, Double> pageRank) {
-		if (pageRank == null) {
+	private boolean isSolved(PageRankIteration iteration) {
+		if (!isConverged(iteration)) {
+			return false;
+		}
+		
+		if (solver != Solver.ADAPTIVE) {
 			return true;
 		}
 		
-		double currentPerplexity = calculatePerplexity(pageRank);
+		iteration.checkAdaptive(pool);
+		
+		return isConverged(iteration);
+	}
+	
+	/**
+	 * Check whether the convergence of page rank is achieved or not by the
+	 * chosen criterion, or every page is frozen
+	 * 
+	 * @param iteration The iteration run last
+	 * @return true iff the convergence is achieved. False, otherwise
+	 */
+	private boolean isConverged(PageRankIteration iteration) {
+		boolean converged;
+		
+		switch (convergence) {
+		case L1:
+			converged = iteration.getL1Delta() < tolerance;
+			break;
+		case MAX_DELTA:
+			converged = iteration.getMaxDelta() < tolerance;
+			break;
+		default:
+			return isConverged(iteration.getPerplexity()) || iteration.getActivePages() == 0;
+		}
+		
+		perplexity.add(iteration.getPerplexity());
+		
+		return converged || iteration.getActivePages() == 0;
+	}
+	
+	/**
+	 * Check whether the convergence of page rank is achieved or not
+	 * 
+	 * @param currentPerplexity The perplexity of the current page rank
+	 * @return true iff the convergence is achieved. False, otherwise
+	 */
+	private boolean isConverged(double currentPerplexity) {
 		double oldPerplexity = perplexity.get(perplexity.size() - 1);
 		
-		// Difference is less than 1
-		if (Math.abs(currentPerplexity - oldPerplexity) < 1) {
+		// Difference is less than the tolerance
+		if (Math.abs(currentPerplexity - oldPerplexity) < tolerance) {
 			convergenceCount++;
 			
-			if (convergenceCount == CONSECUTIVE_ITERATION_COUNT) {
+			if (convergenceCount >= CONSECUTIVE_ITERATION_COUNT) {
 				return true;
 			}
 			
@@ -138,13 +468,13 @@ public class PageRankAlgorithm {
 	 * Shannon's entropy is given by:
 	 * H(PR) = -sum(PR(i) * log(PR(i))) for all i = 0 to N - 1
 	 * 
-	 * @param pageRank The page rank for a web graph
+	 * @param pageRank The page rank indexed by page id
 	 * @return The perplexity
 	 */
-	private double calculatePerplexity(HashMap<String, Double> pageRank) {
+	private double calculatePerplexity(double[] pageRank) {
 		double entropy = 0;
 		
-		for (Double rank : pageRank.values()) {
+		for (double rank : pageRank) {
 			entropy += rank * Math.log(rank) / LOG_BASE_TWO;
 		}
 		
@@ -162,6 +492,15 @@ public class PageRankAlgorithm {
 		return perplexity;
 	}
 	
+	/**
+	 * Return the number of residuals pushed by the last incremental update
+	 * 
+	 * @return The number of pushes
+	 */
+	public long getNumberOfPushes() {
+		return pushes;
+	}
+	
 	/**
 	 * Return number pages whose page rank is less than their initial, uniform value  
 	 * 
@@ -170,13 +509,10 @@ public class PageRankAlgorithm {
 	public int getNumberOfDegradedPages() {
 		int count = 0;
 		
-		for (Map.Entry<String, Double> entry : pageRank.entrySet()) {
-			
-			String page = entry.getKey();
-			double pageRank = entry.getValue();
+		for (double rank : pageRank) {
 			
 			// page rank is less than their initial, uniform value
-			if (pageRank < initPageRank.get(page)) {
+			if (rank < initPageRankValue) {
 				count++;
 			}
 			
@@ -0,0 +1,530 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Iterations of page rank over a compact web graph, on one thread or on a
+ * fork-join pool. Pages are split once into contiguous ranges of page ids
+ * holding about the same number of pages plus in-links, so each range is
+ * about the same work and reads and writes neighbouring entries of the rank
+ * vectors. Every range sums its sink rank, entropy and rank changes on its
+ * own, and the sums of the ranges are added in range order, so the page
+ * ranks do not depend on the number of threads or on the order ranges are
+ * run in.
+ * 
+ * Three solvers are offered. A Jacobi iteration computes every new rank
+ * from the ranks of the previous iteration. A Gauss-Seidel sweep updates
+ * ranks in place in order of page id, so later pages already see the new
+ * ranks of earlier ones. It only saves sweeps for in-links from lower page
+ * ids, so the saving depends on how pages are numbered and is small when
+ * they are numbered at random, and it always runs on one thread. An
+ * adaptive iteration is a Jacobi iteration which stops updating pages once
+ * their rank has converged, and checks them again with a full iteration
+ * before page rank is converged.
+ * 
+ * @author Adib
+ */
+public class PageRankIteration {
+	
+	// Pages plus in-links in a range of pages
+	private static final int RANGE_WORK = 1 << 16;
+	
+	private static final double LOG_BASE_TWO = Math.log(2);
+	
+	private final double dampingFactor;
+	private final int numberOfPages;
+	private final int[] inLinkOffsets;
+	private final int[] inLinks;
+	
+	// 1 / out-degree of each page, 0 for sinks whose rank is spread evenly
+	private final double[] inverseOutDegrees;
+	
+	// Two rank vectors swapped between Jacobi iterations
+	private double[] pageRank;
+	private double[] newPageRank;
+	
+	// Rank each page passes along each of its out-links
+	private final double[] shares;
+	
+	// Number of consecutive adaptive iterations in which the rank of each
+	// page changed less than the tolerances, allocated when first needed
+	private byte[] stableIterations;
+	
+	// Stable iterations after which a page is frozen
+	private static final int FREEZE_ITERATIONS = 2;
+	
+	// First page of each range, followed by the number of pages
+	private final int[] ranges;
+	
+	// Sums of each range in the last iteration
+	private final double[] sinkRanks;
+	private final double[] entropies;
+	private final double[] l1Deltas;
+	private final double[] maxDeltas;
+	private final double[] rankSums;
+	private final int[] activePages;
+	private final int[] unfrozenPages;
+	
+	// Rank every page gets from teleportation and sinks in this iteration,
+	// and its change from the previous iteration, which frozen pages still get
+	private double baseRank;
+	private double baseRankChange;
+	
+	// Tolerances under which adaptive iterations freeze a page
+	private double absoluteTolerance;
+	private double relativeTolerance;
+	
+	// Totals of the last iteration
+	private double perplexity;
+	private double l1Delta;
+	private double maxDelta;
+	private int active;
+	
+	/**
+	 * Initialize the iteration with uniform page ranks
+	 * 
+	 * @param graph The compact web graph
+	 * @param dampingFactor The probability of following a link
+	 */
+	public PageRankIteration(CompactWebGraph graph, double dampingFactor) {
+		this(graph, dampingFactor, null);
+	}
+	
+	/**
+	 * Initialize the iteration with the given page ranks, to warm start from
+	 * ranks close to the solution
+	 * 
+	 * @param graph The compact web graph
+	 * @param dampingFactor The probability of following a link
+	 * @param initialRank Page rank indexed by page id adding up to 1, or null for uniform ranks
+	 */
+	public PageRankIteration(CompactWebGraph graph, double dampingFactor, double[] initialRank) {
+		this.dampingFactor = dampingFactor;
+		numberOfPages = graph.getNumberOfPages();
+		inLinkOffsets = graph.getInLinkOffsets();
+		inLinks = graph.getInLinks();
+		
+		int[] outDegrees = graph.getOutDegrees();
+		inverseOutDegrees = new double[numberOfPages];
+		for (int page = 0; page < numberOfPages; page++) {
+			if (outDegrees[page] != 0) {
+				inverseOutDegrees[page] = 1 / (double) outDegrees[page];
+			}
+		}
+		
+		pageRank = new double[numberOfPages];
+		newPageRank = new double[numberOfPages];
+		shares = new double[numberOfPages];
+		if (initialRank == null) {
+			Arrays.fill(pageRank, 1 / (double) numberOfPages);
+		} else {
+			System.arraycopy(initialRank, 0, pageRank, 0, numberOfPages);
+		}
+		
+		ranges = balanceRanges(inLinkOffsets, numberOfPages);
+		sinkRanks = new double[ranges.length - 1];
+		entropies = new double[ranges.length - 1];
+		l1Deltas = new double[ranges.length - 1];
+		maxDeltas = new double[ranges.length - 1];
+		rankSums = new double[ranges.length - 1];
+		activePages = new int[ranges.length - 1];
+		unfrozenPages = new int[ranges.length - 1];
+		
+		active = numberOfPages;
+	}
+	
+	/**
+	 * Split pages into contiguous ranges of about RANGE_WORK pages plus
+	 * in-links each. The work before page p is p + inLinkOffsets[p], which
+	 * grows with p, so each range end is found by binary search.
+	 */
+	private static int[] balanceRanges(int[] inLinkOffsets, int numberOfPages) {
+		long totalWork = (long) numberOfPages + inLinkOffsets[numberOfPages];
+		int count = (int) Math.max(1, Math.min(numberOfPages, (totalWork + RANGE_WORK - 1) / RANGE_WORK));
+		
+		int[] ranges = new int[count + 1];
+		for (int range = 1; range < count; range++) {
+			long work = totalWork * range / count;
+			
+			// First page whose work before it reaches the share of the range
+			int low = ranges[range - 1];
+			int high = numberOfPages;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if ((long) middle + inLinkOffsets[middle] < work) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			ranges[range] = low;
+		}
+		ranges[count] = numberOfPages;
+		
+		return ranges;
+	}
+	
+	/**
+	 * Run one Jacobi iteration of page rank
+	 * 
+	 * @param pool The pool to run ranges on, or null to run on this thread
+	 */
+	public void iterate(ForkJoinPool pool) {
+		iterate(pool, RangeTask.GATHER);
+	}
+	
+	/**
+	 * Run one Jacobi iteration, gathering ranks in the given phase
+	 */
+	private void iterate(ForkJoinPool pool, int gatherPhase) {
+		
+		// Sum the sink rank and compute the shares passed along out-links
+		run(pool, RangeTask.SPREAD);
+		
+		double sinkRank = 0;
+		for (double rank : sinkRanks) {
+			sinkRank += rank;
+		}
+		
+		// Teleportation, and remaining sink PR spread evenly
+		double previousBaseRank = baseRank;
+		baseRank = (1 - dampingFactor + dampingFactor * sinkRank) / (double) numberOfPages;
+		baseRankChange = baseRank - previousBaseRank;
+		
+		// Sum the shares of the in-links of every page
+		run(pool, gatherPhase);
+		
+		double[] swap = pageRank;
+		pageRank = newPageRank;
+		newPageRank = swap;
+		
+		sumRanges();
+		
+		// Frozen pages miss the changes of the shares of their in-links, so
+		// ranks are scaled back to a sum of 1
+		if (gatherPhase != RangeTask.GATHER) {
+			double sum = 0;
+			for (double rankSum : rankSums) {
+				sum += rankSum;
+			}
+			for (int page = 0; page < numberOfPages; page++) {
+				pageRank[page] /= sum;
+			}
+		}
+	}
+	
+	/**
+	 * Run one adaptive iteration of page rank: a Jacobi iteration which
+	 * leaves out pages whose rank changed by at most the absolute tolerance
+	 * plus the relative tolerance times their rank in FREEZE_ITERATIONS
+	 * consecutive earlier iterations. The shares of those frozen pages are
+	 * still passed along their out-links, and they still get the change of
+	 * the rank spread evenly from teleportation and sinks, so ranks keep
+	 * adding up to about 1, and ranks are scaled back to a sum of 1.
+	 * 
+	 * @param pool The pool to run ranges on, or null to run on this thread
+	 * @param absoluteTolerance The largest change of a converged rank
+	 * @param relativeTolerance The largest change of a converged rank,
+	 *        relative to the rank
+	 */
+	public void iterateAdaptive(ForkJoinPool pool, double absoluteTolerance, double relativeTolerance) {
+		if (stableIterations == null) {
+			stableIterations = new byte[numberOfPages];
+		}
+		
+		this.absoluteTolerance = absoluteTolerance;
+		this.relativeTolerance = relativeTolerance;
+		
+		iterate(pool, RangeTask.GATHER_ADAPTIVE);
+	}
+	
+	/**
+	 * Run one full Jacobi iteration after adaptive iterations converged,
+	 * updating frozen pages too, and unfreeze the frozen pages whose rank
+	 * changed by more than the tolerances, as the in-links of a frozen page
+	 * may have changed since it was frozen
+	 * 
+	 * @param pool The pool to run ranges on, or null to run on this thread
+	 * @return The number of pages unfrozen
+	 */
+	public int checkAdaptive(ForkJoinPool pool) {
+		if (stableIterations == null) {
+			stableIterations = new byte[numberOfPages];
+		}
+		
+		iterate(pool, RangeTask.GATHER_CHECK);
+		
+		int count = 0;
+		for (int unfrozen : unfrozenPages) {
+			count += unfrozen;
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Run one Gauss-Seidel sweep of page rank on this thread. Ranks and
+	 * shares are updated in place in order of page id, and so is the sink
+	 * rank spread evenly. Updating in place does not keep the sum of the
+	 * ranks at 1, so they are scaled back to it after the sweep.
+	 */
+	public void iterateGaussSeidel() {
+		
+		// Shares and sink rank of the current ranks, kept to measure changes
+		for (int range = 0; range < ranges.length - 1; range++) {
+			spread(range);
+		}
+		System.arraycopy(pageRank, 0, newPageRank, 0, numberOfPages);
+		
+		double sinkRank = 0;
+		for (double rank : sinkRanks) {
+			sinkRank += rank;
+		}
+		
+		double teleportRank = (1 - dampingFactor) / (double) numberOfPages;
+		double sinkFactor = dampingFactor / (double) numberOfPages;
+		double sum = 0;
+		
+		for (int page = 0; page < numberOfPages; page++) {
+			double share = 0;
+			for (int i = inLinkOffsets[page]; i < inLinkOffsets[page + 1]; i++) {
+				share += shares[inLinks[i]];
+			}
+			
+			double rank = teleportRank + sinkFactor * sinkRank + dampingFactor * share;
+			
+			if (inverseOutDegrees[page] == 0) {
+				sinkRank += rank - pageRank[page];
+			}
+			
+			pageRank[page] = rank;
+			shares[page] = rank * inverseOutDegrees[page];
+			sum += rank;
+		}
+		
+		double entropy = 0;
+		double l1 = 0;
+		double max = 0;
+		
+		for (int page = 0; page < numberOfPages; page++) {
+			double rank = pageRank[page] / sum;
+			double delta = Math.abs(rank - newPageRank[page]);
+			
+			pageRank[page] = rank;
+			entropy += rank * Math.log(rank);
+			l1 += delta;
+			max = Math.max(max, delta);
+		}
+		
+		perplexity = Math.pow(2, -entropy / LOG_BASE_TWO);
+		l1Delta = l1;
+		maxDelta = max;
+		active = numberOfPages;
+	}
+	
+	/**
+	 * Add up the sums of the ranges in range order
+	 */
+	private void sumRanges() {
+		double entropy = 0;
+		double l1 = 0;
+		double max = 0;
+		int count = 0;
+		
+		for (int range = 0; range < ranges.length - 1; range++) {
+			entropy += entropies[range];
+			l1 += l1Deltas[range];
+			max = Math.max(max, maxDeltas[range]);
+			count += activePages[range];
+		}
+		
+		perplexity = Math.pow(2, -entropy / LOG_BASE_TWO);
+		l1Delta = l1;
+		maxDelta = max;
+		active = count;
+	}
+	
+	/**
+	 * Run a phase over all ranges
+	 */
+	private void run(ForkJoinPool pool, int phase) {
+		if (pool == null || ranges.length == 2) {
+			for (int range = 0; range < ranges.length - 1; range++) {
+				runRange(phase, range);
+			}
+		} else {
+			pool.invoke(new RangeTask(phase, 0, ranges.length - 1));
+		}
+	}
+	
+	private void runRange(int phase, int range) {
+		if (phase == RangeTask.SPREAD) {
+			spread(range);
+		} else {
+			gather(range, phase);
+		}
+	}
+	
+	/**
+	 * Sum the rank of the sinks of a range, and compute the share each of its
+	 * pages passes along each of its out-links
+	 */
+	private void spread(int range) {
+		double sinkRank = 0;
+		
+		for (int page = ranges[range]; page < ranges[range + 1]; page++) {
+			if (inverseOutDegrees[page] == 0) {
+				sinkRank += pageRank[page];
+			}
+			shares[page] = pageRank[page] * inverseOutDegrees[page];
+		}
+		
+		sinkRanks[range] = sinkRank;
+	}
+	
+	/**
+	 * Set the new rank of each page of a range from the shares of its
+	 * in-links, and sum the entropy of the new ranks and their changes.
+	 * Adaptive iterations only add the change of the base rank to frozen
+	 * pages, and count the iterations in which the rank of other pages
+	 * changed less than the tolerances. Checking iterations update every
+	 * page and unfreeze those which changed more.
+	 */
+	private void gather(int range, int phase) {
+		boolean adaptive = phase != RangeTask.GATHER;
+		double entropy = 0;
+		double l1 = 0;
+		double max = 0;
+		double sum = 0;
+		int count = 0;
+		int unfrozen = 0;
+		
+		for (int page = ranges[range]; page < ranges[range + 1]; page++) {
+			double oldRank = pageRank[page];
+			
+			if (phase == RangeTask.GATHER_ADAPTIVE && stableIterations[page] == FREEZE_ITERATIONS) {
+				double rank = oldRank + baseRankChange;
+				newPageRank[page] = rank;
+				entropy += rank * Math.log(rank);
+				sum += rank;
+				continue;
+			}
+			
+			double share = 0;
+			for (int i = inLinkOffsets[page]; i < inLinkOffsets[page + 1]; i++) {
+				share += shares[inLinks[i]];
+			}
+			
+			double rank = baseRank + dampingFactor * share;
+			double delta = Math.abs(rank - oldRank);
+			
+			newPageRank[page] = rank;
+			entropy += rank * Math.log(rank);
+			sum += rank;
+			l1 += delta;
+			max = Math.max(max, delta);
+			count++;
+			
+			if (adaptive) {
+				if (delta <= absoluteTolerance + relativeTolerance * rank) {
+					if (stableIterations[page] < FREEZE_ITERATIONS) {
+						stableIterations[page]++;
+					}
+				} else {
+					if (stableIterations[page] == FREEZE_ITERATIONS) {
+						unfrozen++;
+					}
+					stableIterations[page] = 0;
+				}
+			}
+		}
+		
+		entropies[range] = entropy;
+		l1Deltas[range] = l1;
+		maxDeltas[range] = max;
+		rankSums[range] = sum;
+		activePages[range] = count;
+		unfrozenPages[range] = unfrozen;
+	}
+	
+	/**
+	 * Return the page ranks of the last iteration
+	 * 
+	 * @return Page rank indexed by page id
+	 */
+	public double[] getPageRank() {
+		return pageRank;
+	}
+	
+	/**
+	 * Return 2 raised to the entropy of the page ranks of the last iteration
+	 * 
+	 * @return The perplexity
+	 */
+	public double getPerplexity() {
+		return perplexity;
+	}
+	
+	/**
+	 * Return the sum of the changes of all ranks in the last iteration
+	 * 
+	 * @return The L1 norm of the change of the rank vector
+	 */
+	public double getL1Delta() {
+		return l1Delta;
+	}
+	
+	/**
+	 * Return the largest change of a rank in the last iteration
+	 * 
+	 * @return The maximum norm of the change of the rank vector
+	 */
+	public double getMaxDelta() {
+		return maxDelta;
+	}
+	
+	/**
+	 * Return the number of pages updated by the last iteration
+	 * 
+	 * @return The number of pages not frozen before the iteration
+	 */
+	public int getActivePages() {
+		return active;
+	}
+	
+	/**
+	 * Task running a phase over ranges of pages, splitting them in halves
+	 * until a single range is left
+	 */
+	private class RangeTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		static final int SPREAD = 0;
+		static final int GATHER = 1;
+		static final int GATHER_ADAPTIVE = 2;
+		static final int GATHER_CHECK = 3;
+		
+		private final int phase;
+		private final int from;
+		private final int to;
+		
+		RangeTask(int phase, int from, int to) {
+			this.phase = phase;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				runRange(phase, from);
+				return;
+			}
+			
+			int middle = (from + to) >>> 1;
+			invokeAll(new RangeTask(phase, from, middle), new RangeTask(phase, middle, to));
+		}
+	}
+	
+}
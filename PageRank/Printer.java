@@ -2,11 +2,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -44,6 +41,73 @@ public class Printer {
 		}
 	}
 	
+	/**
+	 * Print pages of a compact web graph along with their page rank values to
+	 * the given file
+	 * 
+	 * @param graph The compact web graph
+	 * @param pageRank Page rank indexed by page id
+	 * @param fileName The name of the file to write to
+	 */
+	public static void printPageRank(CompactWebGraph graph, double[] pageRank, String fileName) {
+		// Null Check
+		if (graph == null || pageRank == null) {
+			return;
+		}
+		
+		try (
+			PrintWriter outputStream = new PrintWriter(new File(fileName));
+		) {
+			
+			for (int page = 0; page < pageRank.length; page++) {
+				String printString = graph.getPage(page) + " " + pageRank[page];
+				outputStream.println(printString);
+			}
+			
+		} catch (IOException e) {
+			
+			e.printStackTrace();
+			
+		}
+	}
+	
+	/**
+	 * Print a compact web graph to the given file in the form it is read
+	 * from, each page followed by the pages linking to it
+	 * 
+	 * @param graph The compact web graph
+	 * @param fileName The name of the file to write to
+	 */
+	public static void printGraph(CompactWebGraph graph, String fileName) {
+		// Null Check
+		if (graph == null) {
+			return;
+		}
+		
+		int[] inLinkOffsets = graph.getInLinkOffsets();
+		int[] inLinks = graph.getInLinks();
+		
+		try (
+			PrintWriter outputStream = new PrintWriter(new File(fileName));
+		) {
+			
+			for (int page = 0; page < graph.getNumberOfPages(); page++) {
+				StringBuilder printString = new StringBuilder(graph.getPage(page));
+				
+				for (int i = inLinkOffsets[page]; i < inLinkOffsets[page + 1]; i++) {
+					printString.append(' ').append(graph.getPage(inLinks[i]));
+				}
+				
+				outputStream.println(printString);
+			}
+			
+		} catch (IOException e) {
+			
+			e.printStackTrace();
+			
+		}
+	}
+	
 	/**
 	 * Print perplexity values to the given file
 	 * 
@@ -85,39 +149,62 @@ public class Printer {
 			return;
 		}
 		
-		List<Map.Entry<String, Double>> listPages = 
-				new ArrayList<Map.Entry<String, Double>>(pages.entrySet());
+		String[] pageNames = new String[pages.size()];
+		double[] ranks = new double[pages.size()];
+		int count = 0;
 		
-		// Sort according to decreasing order of page-rank
-		Collections.sort(listPages, new Comparator<Map.Entry<String, Double>>() {
-			@Override
-			public int compare(Map.Entry<String, Double> o1, 
-					Map.Entry<String, Double> o2) {
-				
-				double o1Value = o1.getValue();
-				double o2Value = o2.getValue(); 
-				
-				if (o1Value > o2Value) {
-					return -1;
-				} else if (o1Value < o2Value) {
-					return 1;
-				} else {
-					return 0;
-				}
-				
-			}
-		});
+		for (Map.Entry<String, Double> entry : pages.entrySet()) {
+			pageNames[count] = entry.getKey();
+			ranks[count] = entry.getValue();
+			count++;
+		}
+		
+		// Select top pages by decreasing order of page-rank
+		int[] topPages = TopK.select(ranks, top);
 		
 		// Print to File
 		try (
 			PrintWriter outputStream = new PrintWriter(new File(fileName));
 		) {
 			
-			int len = listPages.size();
+			for (int page : topPages) {
+				String printString = pageNames[page] + " " + ranks[page];
+				outputStream.println(printString);
+			}
+			
+		} catch (IOException e) {
+			
+			e.printStackTrace();
+			
+		}
+	}
+	
+	/**
+	 * Print top pages of a compact web graph along with their page rank values
+	 * to the given file sorted by decreasing order of page-rank
+	 * 
+	 * @param graph The compact web graph
+	 * @param pageRank Page rank indexed by page id
+	 * @param top The number of top pages to print
+	 * @param fileName The name of the file to write to
+	 */
+	public static void printTopPageRank(CompactWebGraph graph, double[] pageRank, int top,
+			String fileName) {
+		// Null Check
+		if (graph == null || pageRank == null) {
+			return;
+		}
+		
+		// Select top pages by decreasing order of page-rank
+		int[] topPages = TopK.select(pageRank, top);
+		
+		// Print to File
+		try (
+			PrintWriter outputStream = new PrintWriter(new File(fileName));
+		) {
 			
-			for (int i = 0; i < top && i < len; i++) {
-				Map.Entry<String, Double> pageEntry = listPages.get(i);
-				String printString = pageEntry.getKey() + " " + pageEntry.getValue();
+			for (int page : topPages) {
+				String printString = graph.getPage(page) + " " + pageRank[page];
 				outputStream.println(printString);
 			}
 			
@@ -144,39 +231,26 @@ public class Printer {
 		
 		HashMap<String, HashSet<String>> inLinks = graph.getInLinks();
 		
-		List<Map.Entry<String, HashSet<String>>> listPages =
-				new ArrayList<Map.Entry<String, HashSet<String>>>(inLinks.entrySet());
+		String[] pageNames = new String[inLinks.size()];
+		double[] inLinkCounts = new double[inLinks.size()];
+		int count = 0;
 		
-		// Sort according to decreasing order of size of in-links
-		Collections.sort(listPages, new Comparator<Map.Entry<String, HashSet<String>>>() {
-			@Override
-			public int compare(Map.Entry<String, HashSet<String>> o1,
-					Map.Entry<String, HashSet<String>> o2) {
-				
-				int o1Size = o1.getValue().size();
-				int o2Size = o2.getValue().size(); 
-				
-				if (o1Size > o2Size) {
-					return -1;
-				} else if (o1Size < o2Size) {
-					return 1;
-				} else {
-					return 0;
-				}
-				
-			}
-		});
+		for (Map.Entry<String, HashSet<String>> entry : inLinks.entrySet()) {
+			pageNames[count] = entry.getKey();
+			inLinkCounts[count] = entry.getValue().size();
+			count++;
+		}
+		
+		// Select top pages by decreasing order of size of in-links
+		int[] topPages = TopK.select(inLinkCounts, top);
 		
 		// Print to File
 		try (
 			PrintWriter outputStream = new PrintWriter(new File(fileName));
 		) {
 			
-			int len = listPages.size();
-			
-			for (int i = 0; i < top && i < len; i++) {
-				Map.Entry<String, HashSet<String>> pageEntry = listPages.get(i);
-				String printString = pageEntry.getKey() + " " + pageEntry.getValue().size();
+			for (int page : topPages) {
+				String printString = pageNames[page] + " " + (int) inLinkCounts[page];
 				outputStream.println(printString);
 			}
 			
@@ -202,39 +276,26 @@ public class Printer {
 			return;
 		}
 		
-		List<Map.Entry<String, Double>> listPages = 
-				new ArrayList<Map.Entry<String, Double>>(pages.entrySet());
+		String[] pageNames = new String[pages.size()];
+		double[] ranks = new double[pages.size()];
+		int count = 0;
 		
-		// Sort according to decreasing order of page-rank
-		Collections.sort(listPages, new Comparator<Map.Entry<String, Double>>() {
-			@Override
-			public int compare(Map.Entry<String, Double> o1, 
-					Map.Entry<String, Double> o2) {
-				
-				double o1Value = o1.getValue();
-				double o2Value = o2.getValue(); 
-				
-				if (o1Value > o2Value) {
-					return -1;
-				} else if (o1Value < o2Value) {
-					return 1;
-				} else {
-					return 0;
-				}
-				
-			}
-		});
+		for (Map.Entry<String, Double> entry : pages.entrySet()) {
+			pageNames[count] = entry.getKey();
+			ranks[count] = entry.getValue();
+			count++;
+		}
+		
+		// Select top pages by decreasing order of page-rank
+		int[] topPages = TopK.select(ranks, top);
 		
 		// Print to File
 		try (
 			PrintWriter outputStream = new PrintWriter(new File(fileName));
 		) {
 			
-			int len = listPages.size();
-			
-			for (int i = 0; i < top && i < len; i++) {
-				Map.Entry<String, Double> pageEntry = listPages.get(i);
-				String page = pageEntry.getKey();
+			for (int index : topPages) {
+				String page = pageNames[index];
 				String printString = page + " " + graph.getNumberOfInLinks(page) +
 						" " + graph.getNumberOfOutLinks(page);
 				outputStream.println(printString);
@@ -263,39 +324,26 @@ public class Printer {
 		
 		HashMap<String, HashSet<String>> inLinks = graph.getInLinks();
 		
-		List<Map.Entry<String, HashSet<String>>> listPages =
-				new ArrayList<Map.Entry<String, HashSet<String>>>(inLinks.entrySet());
+		String[] pageNames = new String[inLinks.size()];
+		double[] inLinkCounts = new double[inLinks.size()];
+		int count = 0;
 		
-		// Sort according to decreasing order of size of in-links
-		Collections.sort(listPages, new Comparator<Map.Entry<String, HashSet<String>>>() {
-			@Override
-			public int compare(Map.Entry<String, HashSet<String>> o1,
-					Map.Entry<String, HashSet<String>> o2) {
-				
-				int o1Size = o1.getValue().size();
-				int o2Size = o2.getValue().size(); 
-				
-				if (o1Size > o2Size) {
-					return -1;
-				} else if (o1Size < o2Size) {
-					return 1;
-				} else {
-					return 0;
-				}
-				
-			}
-		});
+		for (Map.Entry<String, HashSet<String>> entry : inLinks.entrySet()) {
+			pageNames[count] = entry.getKey();
+			inLinkCounts[count] = entry.getValue().size();
+			count++;
+		}
+		
+		// Select top pages by decreasing order of size of in-links
+		int[] topPages = TopK.select(inLinkCounts, top);
 		
 		// Print to File
 		try (
 			PrintWriter outputStream = new PrintWriter(new File(fileName));
 		) {
 			
-			int len = listPages.size();
-			
-			for (int i = 0; i < top && i < len; i++) {
-				Map.Entry<String, HashSet<String>> pageEntry = listPages.get(i);
-				String page = pageEntry.getKey();
+			for (int index : topPages) {
+				String page = pageNames[index];
 				String printString = page + " " + graph.getNumberOfInLinks(page) +
 						" " + graph.getNumberOfOutLinks(page);
 				outputStream.println(printString);
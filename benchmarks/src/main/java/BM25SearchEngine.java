@@ -0,0 +1,82 @@
+import java.util.Map;
+
+import benchmark.SearchEngine;
+
+
+/**
+ * Search engine measured by the benchmarks, calling the indexing and ranking
+ * classes of Indexing_BM25Ranking
+ * 
+ * @author Adib
+ */
+public class BM25SearchEngine implements SearchEngine {
+	
+	// BM25 constants used by BM25
+	private static final double K1 = 1.2;
+	private static final double K2 = 100;
+	private static final double B = 0.75;
+	
+	private BM25Algorithm algorithm;
+	private boolean exhaustive;
+	
+	@Override
+	public Object buildIndex(String corpusFile, int threads) {
+		Index index = new Index();
+		index.buildIndex(corpusFile, threads);
+		return index.getInvertedIndex();
+	}
+	
+	@Override
+	public void writeIndex(String corpusFile, String indexFile, String format) {
+		Index index = new Index();
+		index.buildIndex(corpusFile);
+		
+		if (format.equals("binary")) {
+			Printer.printBinaryIndex(indexFile, index.getInvertedIndex());
+		} else {
+			Printer.printIndex(indexFile, index.getInvertedIndex());
+		}
+	}
+	
+	@Override
+	public Object loadIndex(String indexFile, String format) {
+		
+		if (format.equals("map")) {
+			
+			Index index = new Index();
+			index.loadIndex(indexFile);
+			algorithm = new BM25Algorithm(index.getInvertedIndex(), index.getTokenCount(), K1, K2, B);
+			return index.getInvertedIndex();
+			
+		} else if (format.equals("binary")) {
+			
+			BinaryIndex index = new BinaryIndex();
+			index.loadIndex(indexFile);
+			algorithm = new BM25Algorithm(index, K1, K2, B);
+			return index;
+			
+		} else {
+			
+			ArrayIndex index = new ArrayIndex();
+			index.loadIndex(indexFile);
+			algorithm = new BM25Algorithm(index, K1, K2, B);
+			return index;
+			
+		}
+	}
+	
+	@Override
+	public void setRanking(String ranking) {
+		algorithm.setImpactOrdered(ranking.equals("saat"), 0);
+		algorithm.setTermAtATime(ranking.equals("taat"));
+		exhaustive = ranking.equals("exhaustive");
+	}
+	
+	@Override
+	public Object search(String query, int top) {
+		Map<Integer, Double> documentRank = exhaustive ? algorithm.runBM25Algorithm(query)
+				: algorithm.runBM25Algorithm(query, top);
+		return documentRank;
+	}
+	
+}
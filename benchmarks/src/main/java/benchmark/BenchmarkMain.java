@@ -0,0 +1,57 @@
+package benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the JMH command line options, adding the GC
+ * profiler for allocation rates and writing the results as JSON unless
+ * other profilers or result options are given
+ * 
+ * Usage:
+ *   java -jar benchmarks/target/benchmarks.jar [jmh options] [benchmark regexp]
+ * 
+ * @author Adib
+ */
+public class BenchmarkMain {
+	
+	// File the results are written to by default
+	private static final String RESULT_FILE = "jmh-result.json";
+	
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		
+		if (commandLine.shouldHelp()) {
+			commandLine.showHelp();
+			return;
+		}
+		
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		
+		if (commandLine.getProfilers().isEmpty()) {
+			options.addProfiler(GCProfiler.class);
+		}
+		
+		if (!commandLine.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		
+		if (!commandLine.getResult().hasValue()) {
+			options.result(RESULT_FILE);
+		}
+		
+		Runner runner = new Runner(options.build());
+		
+		if (commandLine.shouldList()) {
+			runner.list();
+			return;
+		}
+		
+		runner.run();
+	}
+	
+}
@@ -0,0 +1,139 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic corpus in the format read by Index.buildIndex: a "# id" line
+ * starting each document followed by lines of its tokens. Terms are drawn
+ * from a Zipf distribution over a fixed vocabulary, where the term of rank r
+ * occurs with probability proportional to 1 / r^skew, so the skew sets how
+ * much the most frequent terms dominate the postings. The same seed always
+ * gives the same corpus and queries.
+ * 
+ * @author Adib
+ */
+public class Corpus {
+	
+	// Tokens per line of a document
+	private static final int TOKENS_PER_LINE = 10;
+	
+	// Cumulative probability of the terms up to each rank
+	private final double[] cumulative;
+	
+	private final Random random;
+	
+	/**
+	 * Initialize a corpus generator
+	 * 
+	 * @param vocabulary The number of distinct terms
+	 * @param skew The Zipf exponent of term frequencies
+	 * @param seed Seed of the random numbers
+	 */
+	public Corpus(int vocabulary, double skew, long seed) {
+		cumulative = new double[vocabulary];
+		random = new Random(seed);
+		
+		double sum = 0;
+		for (int rank = 1; rank <= vocabulary; rank++) {
+			sum += 1 / Math.pow(rank, skew);
+			cumulative[rank - 1] = sum;
+		}
+		for (int i = 0; i < vocabulary; i++) {
+			cumulative[i] /= sum;
+		}
+	}
+	
+	/**
+	 * Write a corpus of the given number of documents
+	 * 
+	 * @param fileName The file to write to
+	 * @param documents The number of documents
+	 * @param averageLength The average number of tokens of a document
+	 * @return The number of tokens written
+	 */
+	public long write(String fileName, int documents, int averageLength) throws IOException {
+		long tokens = 0;
+		
+		try (
+			PrintWriter outputStream = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+		) {
+			
+			for (int document = 1; document <= documents; document++) {
+				outputStream.println("# " + document);
+				
+				// Lengths are uniform between half and one and a half times the average
+				int length = averageLength / 2 + random.nextInt(averageLength + 1);
+				
+				// Empty lines are not written, as the tokenizer reads them as an empty token
+				for (int i = 0; i < length; i++) {
+					outputStream.print(nextTerm());
+					outputStream.print(i % TOKENS_PER_LINE == TOKENS_PER_LINE - 1 || i == length - 1
+							? '\n' : ' ');
+				}
+				
+				tokens += length;
+			}
+		}
+		
+		return tokens;
+	}
+	
+	/**
+	 * Draw queries of a few terms from the same distribution as the corpus
+	 * 
+	 * @param count The number of queries
+	 * @param minTerms The fewest terms of a query
+	 * @param maxTerms The most terms of a query
+	 * @return The queries
+	 */
+	public String[] queries(int count, int minTerms, int maxTerms) {
+		String[] queries = new String[count];
+		
+		for (int i = 0; i < count; i++) {
+			int terms = minTerms + random.nextInt(maxTerms - minTerms + 1);
+			
+			StringBuilder query = new StringBuilder();
+			for (int j = 0; j < terms; j++) {
+				if (j > 0) {
+					query.append(' ');
+				}
+				query.append(nextTerm());
+			}
+			queries[i] = query.toString();
+		}
+		
+		return queries;
+	}
+	
+	/**
+	 * Draw the next term
+	 */
+	private String nextTerm() {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		int rank = (index >= 0 ? index : -index - 1) + 1;
+		return term(Math.min(rank, cumulative.length));
+	}
+	
+	/**
+	 * Term of the given rank, spelled as a number in base 26 with the letters
+	 * a to z so that every rank has its own term
+	 * 
+	 * @param rank The rank of the term, starting from 1
+	 * @return The term
+	 */
+	static String term(int rank) {
+		StringBuilder term = new StringBuilder();
+		
+		for (int value = rank; value > 0; value = (value - 1) / 26) {
+			term.append((char) ('a' + (value - 1) % 26));
+		}
+		
+		return term.reverse().toString();
+	}
+	
+}
@@ -0,0 +1,72 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Synthetic corpus of the benchmarks, generated once per trial in a temporary
+ * directory for each size and skew. Benchmarks extend this class so that its
+ * parameters show up in their results.
+ * 
+ * @author Adib
+ */
+@State(Scope.Benchmark)
+public abstract class CorpusState {
+	
+	// Seed of every generated corpus, so runs can be compared
+	private static final long SEED = 42;
+	
+	@Param({"1000", "10000", "100000"})
+	public int documents;
+	
+	@Param({"0.8", "1.0", "1.2"})
+	public double skew;
+	
+	@Param({"100"})
+	public int averageLength;
+	
+	@Param({"100000"})
+	public int vocabulary;
+	
+	File directory;
+	String corpusFile;
+	long tokens;
+	Corpus corpus;
+	
+	/**
+	 * Generate the corpus of the current parameters
+	 */
+	void generate() throws IOException {
+		directory = Files.createTempDirectory("bm25-benchmark").toFile();
+		corpusFile = new File(directory, "corpus.txt").getPath();
+		
+		corpus = new Corpus(vocabulary, skew, SEED);
+		tokens = corpus.write(corpusFile, documents, averageLength);
+	}
+	
+	/**
+	 * Return the path of a new file in the directory of the corpus
+	 */
+	String file(String name) {
+		return new File(directory, name).getPath();
+	}
+	
+	/**
+	 * Delete the corpus and every file written next to it
+	 */
+	void delete() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+	
+}
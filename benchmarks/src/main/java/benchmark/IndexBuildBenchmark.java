@@ -0,0 +1,79 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of building an inverted index from a corpus with
+ * Index.buildIndex, in indexes built, documents indexed and tokens indexed
+ * per second
+ * 
+ * @author Adib
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBuildBenchmark extends CorpusState {
+	
+	@Param({"1", "4"})
+	public int threads;
+	
+	private SearchEngine engine;
+	
+	/**
+	 * Documents and tokens indexed, reported by JMH as rates
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Throughput {
+		
+		public long documents;
+		public long tokens;
+		
+		@Setup(Level.Iteration)
+		public void reset() {
+			documents = 0;
+			tokens = 0;
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		generate();
+		engine = SearchEngine.create();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		delete();
+	}
+	
+	@Benchmark
+	public Object buildIndex(Throughput throughput) {
+		Object index = engine.buildIndex(corpusFile, threads);
+		
+		throughput.documents += documents;
+		throughput.tokens += tokens;
+		
+		return index;
+	}
+	
+}
@@ -0,0 +1,61 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to load an index file and prepare BM25 ranking on it: a text index
+ * read into maps by Index.loadIndex or into arrays by ArrayIndex, or a
+ * binary index mapped by BinaryIndex
+ * 
+ * @author Adib
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexLoadBenchmark extends CorpusState {
+	
+	@Param({"map", "array", "binary"})
+	public String format;
+	
+	private SearchEngine engine;
+	private String indexFile;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		generate();
+		engine = SearchEngine.create();
+		
+		String fileFormat = format.equals("binary") ? "binary" : "text";
+		indexFile = file("index." + fileFormat);
+		engine.writeIndex(corpusFile, indexFile, fileFormat);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		delete();
+	}
+	
+	@Benchmark
+	public Object loadIndex() {
+		return engine.loadIndex(indexFile, format);
+	}
+	
+}
@@ -0,0 +1,84 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of BM25Algorithm.runBM25Algorithm for one query, sampled over a
+ * fixed list of queries drawn from the term distribution of the corpus so
+ * that common terms appear in queries as often as in documents
+ * 
+ * @author Adib
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark extends CorpusState {
+	
+	// Number of distinct queries cycled through
+	private static final int QUERIES = 1000;
+	
+	@Param({"array", "binary"})
+	public String format;
+	
+	@Param({"daat", "taat", "saat", "exhaustive"})
+	public String ranking;
+	
+	@Param({"100"})
+	public int top;
+	
+	private SearchEngine engine;
+	private String[] queries;
+	
+	/**
+	 * Position in the query list of each thread
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		generate();
+		queries = corpus.queries(QUERIES, 1, 4);
+		
+		String fileFormat = format.equals("binary") ? "binary" : "text";
+		String indexFile = file("index." + fileFormat);
+		
+		engine = SearchEngine.create();
+		engine.writeIndex(corpusFile, indexFile, fileFormat);
+		engine.loadIndex(indexFile, format);
+		engine.setRanking(ranking);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		delete();
+	}
+	
+	@Benchmark
+	public Object search(Cursor cursor) {
+		String query = queries[cursor.next];
+		cursor.next = (cursor.next + 1) % queries.length;
+		return engine.search(query, top);
+	}
+	
+}
@@ -0,0 +1,78 @@
+package benchmark;
+
+/**
+ * Operations of the indexing and ranking code measured by the benchmarks.
+ * The code under measurement lives in the default package, which classes in
+ * a package cannot refer to, and JMH does not accept benchmarks in the default
+ * package. The implementation is therefore a default package class which is
+ * looked up by name once per trial, and benchmarks call it through this
+ * interface.
+ * 
+ * @author Adib
+ */
+public interface SearchEngine {
+	
+	// Name of the default package class implementing this interface
+	String IMPLEMENTATION = "BM25SearchEngine";
+	
+	/**
+	 * Build an inverted index from a corpus
+	 * 
+	 * @param corpusFile The corpus to index
+	 * @param threads The number of threads indexing the corpus
+	 * @return The inverted index
+	 */
+	Object buildIndex(String corpusFile, int threads);
+	
+	/**
+	 * Build an inverted index from a corpus and write it to a file
+	 * 
+	 * @param corpusFile The corpus to index
+	 * @param indexFile The file to write the index to
+	 * @param format "text" or "binary"
+	 */
+	void writeIndex(String corpusFile, String indexFile, String format);
+	
+	/**
+	 * Load an index written by writeIndex and rank the following queries on it
+	 * 
+	 * @param indexFile The index file
+	 * @param format "map" or "array" to read a text index into maps or arrays,
+	 *        or "binary" to map a binary index
+	 * @return The loaded index
+	 */
+	Object loadIndex(String indexFile, String format);
+	
+	/**
+	 * Choose how the following queries are ranked
+	 * 
+	 * @param ranking "daat" for document-at-a-time top documents, "taat" for
+	 *        term-at-a-time top documents from reused accumulators, "saat"
+	 *        for score-at-a-time top documents on impacts, or "exhaustive"
+	 *        to score every matching document into dense accumulators
+	 */
+	void setRanking(String ranking);
+	
+	/**
+	 * Rank documents for a query on the loaded index
+	 * 
+	 * @param query The query
+	 * @param top The number of top documents to return
+	 * @return The top documents with their scores
+	 */
+	Object search(String query, int top);
+	
+	/**
+	 * Create the implementation of the engine
+	 * 
+	 * @return A new engine
+	 */
+	static SearchEngine create() {
+		try {
+			return (SearchEngine) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException exception) {
+			throw new IllegalStateException("Unable to create " + IMPLEMENTATION, exception);
+		}
+	}
+	
+}